@@ -0,0 +1,61 @@
+/******************************************************************************
+ *  Compilation:  javac SeamCarverBridge.java
+ *  Execution:    none
+ *  Dependencies: SeamCarver.java SCUtility.java
+ *
+ *  Hands SeamCarver to the benchmarks in seamcarver.bench, which cannot
+ *  import classes of the unnamed package. Every call is a direct delegation
+ *  the JIT inlines, so the benchmarks measure SeamCarver itself.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdRandom;
+
+import seamcarver.bench.Carver;
+
+public class SeamCarverBridge implements Carver.Factory {
+
+    public Carver create(Picture picture) {
+        final SeamCarver sc = new SeamCarver(picture);
+        return new Carver() {
+            public int width() {
+                return sc.width();
+            }
+
+            public int height() {
+                return sc.height();
+            }
+
+            public int[] findVerticalSeam() {
+                return sc.findVerticalSeam();
+            }
+
+            public int[] findHorizontalSeam() {
+                return sc.findHorizontalSeam();
+            }
+
+            public void removeVerticalSeam(int[] seam) {
+                sc.removeVerticalSeam(seam);
+            }
+
+            public void removeHorizontalSeam(int[] seam) {
+                sc.removeHorizontalSeam(seam);
+            }
+
+            public Picture picture() {
+                return sc.picture();
+            }
+
+            public void resizeTo(int width, int height) {
+                sc.resizeTo(width, height);
+            }
+        };
+    }
+
+    public Picture randomPicture(int width, int height, long seed) {
+        StdRandom.setSeed(seed);
+        return SCUtility.randomPicture(width, height);
+    }
+
+}
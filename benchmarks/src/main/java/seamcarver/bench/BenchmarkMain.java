@@ -0,0 +1,32 @@
+package seamcarver.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so every score comes with its
+ * allocation rate. Takes the usual JMH command line, for example
+ * {@code java -jar benchmarks/target/benchmarks.jar findVerticalSeam -p input=HJocean.png}.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions command = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (command.getIncludes().isEmpty())
+            builder.include(SeamCarverBenchmark.class.getSimpleName());
+        Options options = builder
+                .parent(command)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
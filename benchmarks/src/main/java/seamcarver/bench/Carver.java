@@ -0,0 +1,36 @@
+package seamcarver.bench;
+
+import edu.princeton.cs.algs4.Picture;
+
+/**
+ * The part of the SeamCarver API the benchmarks drive. SeamCarver lives in the
+ * unnamed package, which named packages cannot import, and JMH does not accept
+ * benchmarks in the unnamed package, so SeamCarverBridge implements this there.
+ */
+public interface Carver {
+
+    int width();
+
+    int height();
+
+    int[] findVerticalSeam();
+
+    int[] findHorizontalSeam();
+
+    void removeVerticalSeam(int[] seam);
+
+    void removeHorizontalSeam(int[] seam);
+
+    Picture picture();
+
+    void resizeTo(int width, int height);
+
+    /** Creates carvers and test pictures. */
+    interface Factory {
+
+        Carver create(Picture picture);
+
+        /** A random picture from SCUtility, the same for the same seed. */
+        Picture randomPicture(int width, int height, long seed);
+    }
+}
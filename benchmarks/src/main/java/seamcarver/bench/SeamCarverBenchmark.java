@@ -0,0 +1,149 @@
+package seamcarver.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.princeton.cs.algs4.Picture;
+
+/**
+ * Throughput of the SeamCarver hot paths on the seam-testing fixtures and on
+ * random pictures of growing size. Run through BenchmarkMain to get the
+ * allocation rates of the gc profiler next to the scores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SeamCarverBenchmark {
+
+    /** A fixture of seam-testing/, or random:WIDTHxHEIGHT. */
+    @Param({ "HJocean.png", "chameleon.png", "random:125x100", "random:250x200", "random:500x400", "random:1000x800" })
+    public String input;
+
+    /** Share of the columns and rows the ResizeDemo workload removes, in percent. */
+    @Param({ "10" })
+    public int resizePercent;
+
+    Carver.Factory factory;
+    Picture picture;
+
+    @Setup(Level.Trial)
+    public void load() throws ReflectiveOperationException {
+        factory = (Carver.Factory) Class.forName("SeamCarverBridge").newInstance();
+        if (input.startsWith("random:")) {
+            String[] size = input.substring("random:".length()).split("x");
+            picture = factory.randomPicture(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 42);
+        } else {
+            picture = new Picture(fixture(input));
+        }
+    }
+
+    /** A carver fresh from the constructor, so every seam search runs the full DP. */
+    @State(Scope.Thread)
+    public static class FreshCarver {
+        Carver carver;
+
+        @Setup(Level.Invocation)
+        public void create(SeamCarverBenchmark benchmark) {
+            carver = benchmark.factory.create(benchmark.picture);
+        }
+    }
+
+    /** A fresh carver with its first vertical and horizontal seam already found. */
+    @State(Scope.Thread)
+    public static class CarverWithSeams {
+        Carver carver;
+        int[] verticalSeam;
+        int[] horizontalSeam;
+
+        @Setup(Level.Invocation)
+        public void create(SeamCarverBenchmark benchmark) {
+            carver = benchmark.factory.create(benchmark.picture);
+            horizontalSeam = carver.findHorizontalSeam();
+            verticalSeam = carver.findVerticalSeam();
+        }
+    }
+
+    /** One carver for the whole trial, for the calls that do not change it. */
+    @State(Scope.Thread)
+    public static class SharedCarver {
+        Carver carver;
+
+        @Setup(Level.Trial)
+        public void create(SeamCarverBenchmark benchmark) {
+            carver = benchmark.factory.create(benchmark.picture);
+        }
+    }
+
+    /** Constructor, which computes every energy. */
+    @Benchmark
+    public Carver constructor() {
+        return factory.create(picture);
+    }
+
+    @Benchmark
+    public int[] findVerticalSeam(FreshCarver state) {
+        return state.carver.findVerticalSeam();
+    }
+
+    @Benchmark
+    public int[] findHorizontalSeam(FreshCarver state) {
+        return state.carver.findHorizontalSeam();
+    }
+
+    @Benchmark
+    public Carver removeVerticalSeam(CarverWithSeams state) {
+        state.carver.removeVerticalSeam(state.verticalSeam);
+        return state.carver;
+    }
+
+    @Benchmark
+    public Carver removeHorizontalSeam(CarverWithSeams state) {
+        // the vertical seam was found last, so this also covers the switch of direction
+        state.carver.removeHorizontalSeam(state.horizontalSeam);
+        return state.carver;
+    }
+
+    @Benchmark
+    public Picture picture(SharedCarver state) {
+        return state.carver.picture();
+    }
+
+    /** What ResizeDemo does, less the display: carve off resizePercent of both dimensions. */
+    @Benchmark
+    public Picture resizeDemo() {
+        Carver carver = factory.create(picture);
+        int width = carver.width() - carver.width() * resizePercent / 100;
+        int height = carver.height() - carver.height() * resizePercent / 100;
+        carver.resizeTo(width, height);
+        return carver.picture();
+    }
+
+    // the seam-testing directory of the checkout, from the repository root or a module directory
+    private static File fixture(String name) {
+        String directory = System.getProperty("seamcarver.fixtures");
+        if (directory != null)
+            return new File(directory, name);
+        for (File dir = new File("").getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+            File file = new File(new File(dir, "seam-testing"), name);
+            if (file.isFile())
+                return file;
+        }
+        throw new IllegalArgumentException("cannot find seam-testing/" + name + ", set -Dseamcarver.fixtures");
+    }
+}
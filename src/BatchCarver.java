@@ -0,0 +1,287 @@
+/******************************************************************************
+ *  Compilation:  javac BatchCarver.java
+ *  Execution:    java BatchCarver input outputDirectory [columnsToRemove rowsToRemove] [threads] [memoryMB]
+ *  Dependencies: SeamCarver.java
+ *
+ *  Carve many images in one JVM. The input is either a directory, every
+ *  image of which loses the same number of columns and rows, or a manifest
+ *  with one "image columnsToRemove rowsToRemove" line per job. Jobs run on
+ *  a fixed pool of workers and are admitted only while their estimated
+ *  working memory fits the budget; a single thread decodes admitted jobs
+ *  ahead of the workers. A report.csv with the timings of every job is
+ *  written next to the results.
+ *
+ ******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class BatchCarver {
+
+    // working bytes per pixel of one job: the decoded and the carved Picture (4 each), and in
+    // SeamCarver the pixels (4), energies (8), distTo (8) and edgeTo (1)
+    private static final int BYTES_PER_PIXEL = 29;
+    // memory is counted in units of 1KB so large budgets fit the semaphore
+    private static final int UNIT = 1024;
+
+    private final int threads;
+    private final int budgetUnits;
+
+    // carve with the given number of workers, admitting jobs while their estimates fit memoryBudget bytes
+    public BatchCarver(int threads, long memoryBudget) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        if (memoryBudget < UNIT)
+            throw new IllegalArgumentException("memory budget must be at least " + UNIT + " bytes");
+        this.threads = threads;
+        this.budgetUnits = (int) Math.min(Integer.MAX_VALUE, memoryBudget / UNIT);
+    }
+
+    // one image and the number of columns and rows to remove from it
+    public static class Job {
+        private final File input;
+        private final int columns;
+        private final int rows;
+
+        public Job(File input, int columns, int rows) {
+            if (input == null)
+                throw new IllegalArgumentException("input is null");
+            if (columns < 0 || rows < 0)
+                throw new IllegalArgumentException("number of seams must not be negative");
+            this.input = input;
+            this.columns = columns;
+            this.rows = rows;
+        }
+    }
+
+    // one job per image of the directory, in name order
+    public static List<Job> directory(File directory, int columns, int rows) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IllegalArgumentException("cannot list " + directory);
+        Arrays.sort(files);
+        List<Job> jobs = new ArrayList<Job>();
+        for (File file : files) {
+            if (file.isFile())
+                jobs.add(new Job(file, columns, rows));
+        }
+        return jobs;
+    }
+
+    // one job per "image columnsToRemove rowsToRemove" line of the manifest, images relative to it;
+    // blank lines and lines starting with # are skipped
+    public static List<Job> manifest(File manifest) {
+        List<Job> jobs = new ArrayList<Job>();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+            int number = 0;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3)
+                    throw new IllegalArgumentException(manifest + ":" + number + ": expected image columns rows");
+                File input = new File(fields[0]);
+                if (!input.isAbsolute())
+                    input = new File(manifest.getAbsoluteFile().getParentFile(), fields[0]);
+                jobs.add(new Job(input, Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return jobs;
+    }
+
+    // carve every job into a file of the same name in the output directory and write report.csv there;
+    // a failing job is reported and does not stop the others
+    public void carve(List<Job> jobs, final File outputDirectory) {
+        if (jobs == null || outputDirectory == null)
+            throw new IllegalArgumentException("argument is null");
+        final Semaphore memory = new Semaphore(budgetUnits);
+        final ExecutorService decoder = Executors.newSingleThreadExecutor();
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(jobs.size());
+        final Result[] results = new Result[jobs.size()];
+        try {
+            for (int n = 0; n < jobs.size(); n++) {
+                final Job job = jobs.get(n);
+                final Result result = new Result(job);
+                results[n] = result;
+                // a job larger than the whole budget runs alone
+                final int units;
+                try {
+                    units = Math.min(budgetUnits, estimate(job.input));
+                } catch (RuntimeException e) {
+                    result.fail(e);
+                    done.countDown();
+                    continue;
+                }
+                long start = System.nanoTime();
+                memory.acquireUninterruptibly(units);
+                result.admitNanos = System.nanoTime() - start;
+                decoder.execute(new Runnable() {
+                    public void run() {
+                        final Picture picture;
+                        try {
+                            long start = System.nanoTime();
+                            picture = new Picture(job.input);
+                            result.decodeNanos = System.nanoTime() - start;
+                        } catch (RuntimeException | OutOfMemoryError e) {
+                            result.fail(e);
+                            memory.release(units);
+                            done.countDown();
+                            return;
+                        }
+                        final long decoded = System.nanoTime();
+                        workers.execute(new Runnable() {
+                            public void run() {
+                                try {
+                                    long start = System.nanoTime();
+                                    result.queueNanos = start - decoded;
+                                    SeamCarver sc = new SeamCarver(picture);
+                                    sc.resizeTo(sc.width() - job.columns, sc.height() - job.rows);
+                                    Picture output = sc.picture();
+                                    long carved = System.nanoTime();
+                                    result.carveNanos = carved - start;
+                                    output.save(new File(outputDirectory, job.input.getName()));
+                                    result.encodeNanos = System.nanoTime() - carved;
+                                    result.width = output.width();
+                                    result.height = output.height();
+                                } catch (RuntimeException | OutOfMemoryError e) {
+                                    result.fail(e);
+                                } finally {
+                                    memory.release(units);
+                                    done.countDown();
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while carving", e);
+        } finally {
+            decoder.shutdownNow();
+            workers.shutdownNow();
+        }
+        writeReport(results, new File(outputDirectory, "report.csv"));
+    }
+
+    // helper functions
+
+    // estimated working memory of a job in units, from the image header only
+    private static int estimate(File input) {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null)
+                throw new IllegalArgumentException("cannot read " + input);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext())
+                throw new IllegalArgumentException("no image reader for " + input);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                long bytes = (long) reader.getWidth(0) * reader.getHeight(0) * BYTES_PER_PIXEL;
+                return (int) Math.min(Integer.MAX_VALUE, (bytes + UNIT - 1) / UNIT);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeReport(Result[] results, File report) {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8))) {
+            out.println("input,width,height,admit_ms,decode_ms,queue_ms,carve_ms,encode_ms,error");
+            for (Result result : results) {
+                out.printf("%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%s%n", result.job.input.getPath(),
+                        result.width, result.height, result.admitNanos / 1e6, result.decodeNanos / 1e6,
+                        result.queueNanos / 1e6, result.carveNanos / 1e6, result.encodeNanos / 1e6,
+                        result.error == null ? "" : result.error.replace(',', ';').replace('\n', ' '));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // timings of one job, written by the thread running its current stage
+    private static class Result {
+        final Job job;
+        volatile int width = -1;
+        volatile int height = -1;
+        volatile long admitNanos;
+        volatile long decodeNanos;
+        volatile long queueNanos;
+        volatile long carveNanos;
+        volatile long encodeNanos;
+        volatile String error;
+
+        Result(Job job) {
+            this.job = job;
+        }
+
+        void fail(Throwable e) {
+            error = e.toString();
+        }
+    }
+
+    public static void main(String[] args) {
+        // a directory takes the number of columns and rows to remove, a manifest has them per line
+        int rest = args.length > 0 && new File(args[0]).isDirectory() ? 4 : 2;
+        if (args.length != rest && args.length != rest + 2) {
+            StdOut.println("Usage:\njava BatchCarver [directory] [output directory] [num cols to remove] [num rows to remove] [threads memoryMB]"
+                    + "\njava BatchCarver [manifest] [output directory] [threads memoryMB]");
+            return;
+        }
+        File input = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        List<Job> jobs;
+        if (rest == 4)
+            jobs = directory(input, Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        else
+            jobs = manifest(input);
+        int threads = Runtime.getRuntime().availableProcessors();
+        // leave a quarter of the heap for everything else
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+        if (args.length == rest + 2) {
+            threads = Integer.parseInt(args[rest]);
+            memoryBudget = Long.parseLong(args[rest + 1]) << 20;
+        }
+
+        BatchCarver carver = new BatchCarver(threads, memoryBudget);
+        Stopwatch sw = new Stopwatch();
+        carver.carve(jobs, outputDirectory);
+        double time = sw.elapsedTime();
+
+        StdOut.printf("%d jobs in %.3f seconds, %.2f jobs per second\n", jobs.size(), time, jobs.size() / time);
+    }
+
+}
@@ -0,0 +1,484 @@
+/******************************************************************************
+ *  Compilation:  javac CarveServer.java
+ *  Execution:    java CarveServer [port] [workers=4] [queue=16] [session=256m] [budget=1g]
+ *  Dependencies: SeamCarver.java SeamLog.java
+ *
+ *  Local HTTP retargeting service. An uploaded image stays in a session as a
+ *  seam carver that records its seams, so a later resize goes on from the
+ *  current size: a smaller one removes the seams still missing, a larger one
+ *  undoes removed seams first, and neither decodes the image or computes
+ *  its energies again.
+ *
+ *      POST   /sessions                     image in the body; 201 with
+ *                                           {"id", "width", "height"}
+ *      GET    /sessions/{id}/image?width=w&height=h
+ *                                           the image carved to w-by-h (any
+ *                                           size up to the upload), as PNG
+ *      DELETE /sessions/{id}                204
+ *      GET    /metrics                      latency histograms and counters
+ *
+ *  At most workers requests carve at once and at most queue more wait for a
+ *  worker; others get 503 right away. Requests on one session run one after
+ *  the other. A session is refused with 413 if the estimated memory of its
+ *  carver and seam history exceeds the session limit, and the least
+ *  recently used sessions are dropped once all of them together exceed the
+ *  budget.
+ *
+ ******************************************************************************/
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.princeton.cs.algs4.StdOut;
+
+public class CarveServer {
+
+    // estimated bytes per pixel of a carver: pixels, energies and the seam search tables
+    private static final int CARVER_BYTES = 21;
+    // bytes per removed pixel the seam history keeps for undo, the argb value
+    private static final int HISTORY_BYTES = 4;
+    // seconds a client is told to wait after a 503
+    private static final int RETRY_AFTER = 1;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final long sessionLimit;
+    private final long budget;
+    // requests admitted, running or waiting for a worker, and the workers
+    private final Semaphore admitted;
+    private final Semaphore workers;
+    private final SecureRandom random = new SecureRandom();
+
+    // sessions in access order, least recently used first, and their estimated bytes
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<String, Session>(16, 0.75f, true);
+    private long bytes;
+
+    // latencies of whole requests by kind, uploads that created a session only, and of the wait
+    // for a worker
+    private final Histogram uploads = new Histogram();
+    private final Histogram resizes = new Histogram();
+    private final Histogram deletes = new Histogram();
+    private final Histogram queueWaits = new Histogram();
+
+    // counters
+    private long rejected;
+    private long tooLarge;
+    private long evictions;
+
+    // serve on the given port of the loopback address, 0 for any free port; at most workers
+    // requests carve at once, queue more wait, sessions are limited to sessionLimit estimated
+    // bytes each and budget bytes together
+    public CarveServer(int port, int workers, int queue, long sessionLimit, long budget) throws IOException {
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be at least 1");
+        if (queue < 0)
+            throw new IllegalArgumentException("queue must not be negative");
+        if (sessionLimit < 1 || budget < sessionLimit)
+            throw new IllegalArgumentException("session limit must be positive and at most the budget");
+        this.sessionLimit = sessionLimit;
+        this.budget = budget;
+        this.admitted = new Semaphore(workers + queue);
+        this.workers = new Semaphore(workers, true);
+        // a thread per connection, few of them past the admission limit do more than answer 503
+        this.handlers = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "carve-server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/sessions", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!exchange.getRequestMethod().equals("GET"))
+                    send(exchange, 405, "GET only");
+                else
+                    send(exchange, 200, "application/json", metricsJson().getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    // start answering requests
+    public void start() {
+        server.start();
+    }
+
+    // stop answering requests, waiting up to delay seconds for the ones being answered
+    public void stop(int delay) {
+        server.stop(delay);
+        handlers.shutdownNow();
+        synchronized (this) {
+            sessions.clear();
+            bytes = 0;
+        }
+    }
+
+    // port the server listens on
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // number of sessions held
+    public synchronized int sessions() {
+        return sessions.size();
+    }
+
+    // latency histograms and counters as a JSON object
+    public String metricsJson() {
+        StringBuilder json = new StringBuilder("{\n  \"latency\": {\n");
+        json.append("    \"upload\": ").append(uploads.toJson()).append(",\n");
+        json.append("    \"resize\": ").append(resizes.toJson()).append(",\n");
+        json.append("    \"delete\": ").append(deletes.toJson()).append(",\n");
+        json.append("    \"queueWait\": ").append(queueWaits.toJson()).append("\n  },\n");
+        synchronized (this) {
+            json.append(String.format("  \"sessions\": %d,\n", sessions.size()));
+            json.append(String.format("  \"bytes\": %d,\n", bytes));
+            json.append(String.format("  \"rejected\": %d,\n", rejected));
+            json.append(String.format("  \"tooLarge\": %d,\n", tooLarge));
+            json.append(String.format("  \"evictions\": %d\n}\n", evictions));
+        }
+        return json.toString();
+    }
+
+    // helper functions
+
+    // admit the request to the queue, wait for a worker and dispatch it by method and path
+    private void serve(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!admitted.tryAcquire()) {
+                synchronized (this) {
+                    rejected++;
+                }
+                exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER));
+                send(exchange, 503, "queue full");
+                return;
+            }
+            try {
+                workers.acquire();
+            } catch (InterruptedException e) {
+                admitted.release();
+                Thread.currentThread().interrupt();
+                send(exchange, 503, "server stopping");
+                return;
+            }
+            queueWaits.add(System.nanoTime() - start);
+            try {
+                dispatch(exchange, start);
+            } finally {
+                workers.release();
+                admitted.release();
+            }
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            send(exchange, 500, String.valueOf(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void dispatch(HttpExchange exchange, long start) throws IOException {
+        String method = exchange.getRequestMethod();
+        // "", "sessions", id[, "image"]
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length == 2 && method.equals("POST")) {
+            // refused uploads end early and would make uploads look fast
+            if (upload(exchange))
+                uploads.add(System.nanoTime() - start);
+        } else if (path.length == 4 && path[3].equals("image") && method.equals("GET")) {
+            resize(exchange, path[2]);
+            resizes.add(System.nanoTime() - start);
+        } else if (path.length == 3 && method.equals("DELETE")) {
+            delete(exchange, path[2]);
+            deletes.add(System.nanoTime() - start);
+        } else if (path.length >= 2 && path.length <= 4) {
+            send(exchange, 405, "no " + method + " on " + exchange.getRequestURI().getPath());
+        } else {
+            send(exchange, 404, "no such resource");
+        }
+    }
+
+    // decode the uploaded image into a new session, after checking its size from the header;
+    // returns whether the session was created
+    private boolean upload(HttpExchange exchange) throws IOException {
+        BufferedImage image;
+        try (InputStream body = exchange.getRequestBody();
+                ImageInputStream stream = ImageIO.createImageInputStream(body)) {
+            Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext()) {
+                send(exchange, 415, "not an image");
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (estimate(pixels) > sessionLimit) {
+                    synchronized (this) {
+                        tooLarge++;
+                    }
+                    send(exchange, 413, "image of " + pixels + " pixels exceeds the session limit");
+                    return false;
+                }
+                image = reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IIOException e) {
+            send(exchange, 400, "cannot decode the image: " + e.getMessage());
+            return false;
+        }
+        SeamCarver carver = new SeamCarver(image);
+        carver.setHistory(true);
+        Session session = new Session(newId(), carver);
+        add(session);
+        exchange.getResponseHeaders().set("Location", "/sessions/" + session.id + "/image");
+        send(exchange, 201, "application/json", String.format("{ \"id\": \"%s\", \"width\": %d, \"height\": %d }\n",
+                session.id, carver.width(), carver.height()).getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    // carve the session to the requested size and stream it as PNG
+    private void resize(HttpExchange exchange, String id) throws IOException {
+        Session session = session(id);
+        if (session == null) {
+            send(exchange, 404, "no session " + id);
+            return;
+        }
+        BufferedImage image;
+        synchronized (session) {
+            SeamCarver carver = session.carver;
+            URI uri = exchange.getRequestURI();
+            int width = parameter(uri, "width", carver.width());
+            int height = parameter(uri, "height", carver.height());
+            if (width < 1 || width > session.width || height < 1 || height > session.height)
+                throw new IllegalArgumentException("size outside 1x1 to " + session.width + "x" + session.height);
+            // undo seams until the picture is large enough, then carve the rest
+            while ((carver.width() < width || carver.height() < height) && carver.undo()) {
+            }
+            carver.resizeTo(width, height);
+            image = carver.image();
+        }
+        // encoded before the headers go out, so a failure can still be answered with a 500
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        send(exchange, 200, "image/png", png.toByteArray());
+    }
+
+    private void delete(HttpExchange exchange, String id) throws IOException {
+        Session session;
+        synchronized (this) {
+            session = sessions.remove(id);
+            if (session != null)
+                bytes -= session.bytes;
+        }
+        if (session == null)
+            send(exchange, 404, "no session " + id);
+        else
+            send(exchange, 204, null);
+    }
+
+    // add a session, dropping the least recently used ones beyond the budget
+    private synchronized void add(Session session) {
+        sessions.put(session.id, session);
+        bytes += session.bytes;
+        Iterator<Session> eldest = sessions.values().iterator();
+        while (bytes > budget) {
+            Session evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    private synchronized Session session(String id) {
+        return sessions.get(id);
+    }
+
+    private synchronized String newId() {
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : id)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    // integer query parameter, the default if it is missing
+    private static int parameter(URI uri, String name, int defaultValue) {
+        String query = uri.getRawQuery();
+        if (query == null)
+            return defaultValue;
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                try {
+                    return Integer.parseInt(pair.substring(name.length() + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(name + " is not an integer");
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    // plain text response, no body if message is null
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8",
+                message == null ? null : (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // estimated bytes of a session of the given number of pixels at its largest: the carver at
+    // its upload size, which does not shrink as seams are removed, and the history of all pixels
+    private static long estimate(long pixels) {
+        return pixels * (CARVER_BYTES + HISTORY_BYTES);
+    }
+
+    // sizes such as 512k, 256m or 2g
+    private static long parseBytes(String size) {
+        long unit = 1;
+        char last = Character.toLowerCase(size.charAt(size.length() - 1));
+        if (last == 'k')
+            unit = 1L << 10;
+        else if (last == 'm')
+            unit = 1L << 20;
+        else if (last == 'g')
+            unit = 1L << 30;
+        return unit * Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1));
+    }
+
+    // a carver held between requests, with the size it was uploaded at
+    private static class Session {
+        private final String id;
+        private final SeamCarver carver;
+        private final int width;
+        private final int height;
+        // estimated bytes at the largest, see estimate()
+        private final long bytes;
+
+        Session(String id, SeamCarver carver) {
+            this.id = id;
+            this.carver = carver;
+            this.width = carver.width();
+            this.height = carver.height();
+            this.bytes = estimate((long) width * height);
+        }
+    }
+
+    // latencies in buckets that double from 1 millisecond on, the last one unbounded
+    static class Histogram {
+        private static final int BUCKETS = 16;
+
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void add(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = millis < 1 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+            counts[bucket]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        // upper bound in milliseconds of the bucket holding the given fraction of the latencies,
+        // -1 if that is the unbounded one
+        synchronized long quantile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts[b];
+                if (seen >= rank && seen > 0)
+                    return b == BUCKETS - 1 ? -1 : 1L << b;
+            }
+            return 0;
+        }
+
+        synchronized String toJson() {
+            StringBuilder json = new StringBuilder("{ ");
+            json.append(String.format("\"count\": %d, \"meanMillis\": %.3f, \"maxMillis\": %.3f, ",
+                    count, count == 0 ? 0.0 : totalNanos / 1e6 / count, maxNanos / 1e6));
+            json.append(String.format("\"p50\": %d, \"p90\": %d, \"p99\": %d, \"buckets\": { ",
+                    quantile(0.5), quantile(0.9), quantile(0.99)));
+            for (int b = 0; b < BUCKETS; b++) {
+                String bound = b == BUCKETS - 1 ? "inf" : Long.toString(1L << b);
+                json.append(String.format("\"%s\": %d%s", bound, counts[b], b + 1 < BUCKETS ? ", " : " } }"));
+            }
+            return json.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 5) {
+            StdOut.println("Usage:\njava CarveServer [port] [workers=4] [queue=16] [session=256m] [budget=1g]");
+            return;
+        }
+        int port = 8080;
+        int workers = 4;
+        int queue = 16;
+        long session = 256L << 20;
+        long budget = 1L << 30;
+        for (String arg : args) {
+            if (arg.startsWith("workers="))
+                workers = Integer.parseInt(arg.substring("workers=".length()));
+            else if (arg.startsWith("queue="))
+                queue = Integer.parseInt(arg.substring("queue=".length()));
+            else if (arg.startsWith("session="))
+                session = parseBytes(arg.substring("session=".length()));
+            else if (arg.startsWith("budget="))
+                budget = parseBytes(arg.substring("budget=".length()));
+            else if (!arg.contains("="))
+                port = Integer.parseInt(arg);
+            else
+                throw new IllegalArgumentException("unknown option " + arg);
+        }
+        CarveServer server = new CarveServer(port, workers, queue, session, budget);
+        server.start();
+        StdOut.printf("listening on http://localhost:%d/\n", server.port());
+    }
+
+}
@@ -0,0 +1,242 @@
+/******************************************************************************
+ *  Compilation:  javac CarverCache.java
+ *  Execution:    java CarverCache input.png width1 height1 width2 height2 ...
+ *  Dependencies: SeamCarver.java
+ *
+ *  Cache of carved pictures keyed by the content hash of the source and the
+ *  target size. Besides finished pictures it keeps carver checkpoints, so a
+ *  request for a smaller size continues from a cached larger state of the
+ *  same picture instead of starting over. Pictures are carved columns first,
+ *  then rows, and a checkpoint is kept after each of the two phases.
+ *  Entries are evicted least recently used first once their estimated sizes
+ *  exceed the byte budget.
+ *
+ ******************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class CarverCache {
+
+    // estimated bytes per pixel of a finished picture and of a checkpoint (pixels and energies)
+    private static final int PICTURE_BYTES = 4;
+    private static final int CHECKPOINT_BYTES = 12;
+
+    private final long budget;
+    private long bytes;
+    // entries in access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // statistics
+    private long hits;
+    private long checkpointHits;
+    private long misses;
+    private long evictions;
+
+    // a cache holding at most budget bytes of estimated entry sizes
+    public CarverCache(long budget) {
+        if (budget < 0)
+            throw new IllegalArgumentException("budget must not be negative");
+        this.budget = budget;
+    }
+
+    // the picture carved to width-by-height, from the cache when possible
+    public Picture resize(Picture picture, int width, int height) {
+        if (picture == null)
+            throw new IllegalArgumentException("argument is null");
+        return resize(contentHash(picture), picture, width, height);
+    }
+
+    // same as resize(picture, width, height) with the content hash of the picture already known
+    public Picture resize(String hash, Picture picture, int width, int height) {
+        if (hash == null || picture == null)
+            throw new IllegalArgumentException("argument is null");
+        if (width < 1 || width > picture.width())
+            throw new IllegalArgumentException("width outside [1, " + picture.width() + "]");
+        if (height < 1 || height > picture.height())
+            throw new IllegalArgumentException("height outside [1, " + picture.height() + "]");
+        Picture cached = getPicture(key(false, hash, width, height));
+        if (cached != null)
+            return new Picture(cached);
+        // columns first, then rows: a checkpoint helps if it still has all rows and enough columns,
+        // or has the target width and enough rows
+        SeamCarver sc = getCheckpoint(hash, width, height, picture.height());
+        if (sc == null)
+            sc = new SeamCarver(picture);
+        if (sc.width() > width) {
+            sc.removeVerticalSeams(sc.width() - width);
+            putCheckpoint(hash, sc);
+        }
+        if (sc.height() > height) {
+            sc.removeHorizontalSeams(sc.height() - height);
+            putCheckpoint(hash, sc);
+        }
+        Picture res = sc.picture();
+        putPicture(hash, res);
+        return new Picture(res);
+    }
+
+    // finished pictures served from the cache
+    public synchronized long hits() {
+        return hits;
+    }
+
+    // requests that continued from a checkpoint
+    public synchronized long checkpointHits() {
+        return checkpointHits;
+    }
+
+    // requests carved from the source picture
+    public synchronized long misses() {
+        return misses;
+    }
+
+    // entries dropped to stay within the budget
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    // estimated bytes held
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d hits, %d checkpoint hits, %d misses, %d evictions, %d entries, %d bytes",
+                hits, checkpointHits, misses, evictions, entries.size(), bytes);
+    }
+
+    // SHA-256 over the size and pixels of a picture, in hex
+    public static String contentHash(Picture picture) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer row = ByteBuffer.allocate(4 * Math.max(2, picture.width()));
+        row.putInt(picture.width()).putInt(picture.height());
+        digest.update(row.array(), 0, 8);
+        for (int y = 0; y < picture.height(); y++) {
+            row.clear();
+            for (int x = 0; x < picture.width(); x++)
+                row.putInt(picture.getRGB(x, y));
+            digest.update(row.array(), 0, 4 * picture.width());
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    // helper functions
+
+    // pictures and checkpoints of the same size are separate entries
+    private static String key(boolean checkpoint, String hash, int width, int height) {
+        return (checkpoint ? "checkpoint:" : "picture:") + hash + ":" + width + "x" + height;
+    }
+
+    private synchronized Picture getPicture(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        hits++;
+        return entry.picture;
+    }
+
+    // copy of the checkpoint closest to width-by-height that can still reach it
+    private synchronized SeamCarver getCheckpoint(String hash, int width, int height, int sourceHeight) {
+        Entry best = null;
+        for (Entry entry : entries.values()) {
+            if (entry.carver == null || !entry.hash.equals(hash))
+                continue;
+            boolean usable = entry.height == sourceHeight && entry.width >= width
+                    || entry.width == width && entry.height >= height;
+            if (usable && (best == null || entry.width + entry.height < best.width + best.height))
+                best = entry;
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+        checkpointHits++;
+        // touch it
+        entries.get(best.key);
+        return new SeamCarver(best.carver);
+    }
+
+    private synchronized void putPicture(String hash, Picture picture) {
+        put(new Entry(key(false, hash, picture.width(), picture.height()), hash, picture.width(), picture.height(),
+                picture, null, (long) picture.width() * picture.height() * PICTURE_BYTES));
+    }
+
+    // keeps a copy, the caller goes on carving its carver
+    private synchronized void putCheckpoint(String hash, SeamCarver sc) {
+        String key = key(true, hash, sc.width(), sc.height());
+        if (entries.containsKey(key))
+            return;
+        put(new Entry(key, hash, sc.width(), sc.height(), null, new SeamCarver(sc),
+                (long) sc.width() * sc.height() * CHECKPOINT_BYTES));
+    }
+
+    private void put(Entry entry) {
+        // an entry larger than the whole budget is not kept, nor one that is already there
+        if (entry.bytes > budget || entries.containsKey(entry.key))
+            return;
+        entries.put(entry.key, entry);
+        bytes += entry.bytes;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > budget) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            bytes -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    // a finished picture or a checkpoint, of the picture with the given hash
+    private static class Entry {
+        final String key;
+        final String hash;
+        final int width;
+        final int height;
+        final Picture picture;
+        final SeamCarver carver;
+        final long bytes;
+
+        Entry(String key, String hash, int width, int height, Picture picture, SeamCarver carver, long bytes) {
+            this.key = key;
+            this.hash = hash;
+            this.width = width;
+            this.height = height;
+            this.picture = picture;
+            this.carver = carver;
+            this.bytes = bytes;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length % 2 == 0) {
+            StdOut.println("Usage:\njava CarverCache [image filename] [width height]...");
+            return;
+        }
+        Picture picture = new Picture(args[0]);
+        CarverCache cache = new CarverCache(Runtime.getRuntime().maxMemory() / 2);
+        String hash = contentHash(picture);
+        for (int i = 1; i < args.length; i += 2) {
+            Stopwatch sw = new Stopwatch();
+            cache.resize(hash, picture, Integer.parseInt(args[i]), Integer.parseInt(args[i + 1]));
+            StdOut.printf("%s x %s in %.3f seconds\n", args[i], args[i + 1], sw.elapsedTime());
+        }
+        StdOut.println(cache);
+    }
+
+}
@@ -0,0 +1,178 @@
+/******************************************************************************
+ *  Compilation:  javac CarverMetrics.java
+ *  Execution:    none
+ *  Dependencies: none
+ *
+ *  Time, allocations and calls of every phase of a SeamCarver, plus the
+ *  number of transposes and of relaxed pixels. A phase started inside
+ *  another one pauses it, so every nanosecond is charged to one phase only.
+ *  Allocations are those of the carving thread, as far as the JVM reports
+ *  them; work a parallel pool does on other threads is timed but its
+ *  allocations are not counted.
+ *
+ ******************************************************************************/
+
+import java.lang.management.ManagementFactory;
+
+public class CarverMetrics {
+
+    // phases of a carve
+    public enum Phase {
+        ENERGY("energy"),
+        SEAM_SEARCH("seamSearch"),
+        TRANSPOSE("transpose"),
+        VALIDATION("validation"),
+        REMOVAL("removal");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    // deepest nesting of phases
+    private static final int MAX_DEPTH = 8;
+    // per-thread allocation counter of HotSpot, null where there is none
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+
+    private final long[] nanos = new long[Phase.values().length];
+    private final long[] bytes = new long[Phase.values().length];
+    private final long[] calls = new long[Phase.values().length];
+    private long transposes;
+    private long pixelsRelaxed;
+
+    // phases started and not ended yet, and when the innermost one was last charged
+    private final Phase[] stack = new Phase[MAX_DEPTH];
+    private int depth;
+    private long markNanos;
+    private long markBytes;
+
+    // empty metrics
+    public CarverMetrics() {
+    }
+
+    private CarverMetrics(CarverMetrics other) {
+        System.arraycopy(other.nanos, 0, nanos, 0, nanos.length);
+        System.arraycopy(other.bytes, 0, bytes, 0, bytes.length);
+        System.arraycopy(other.calls, 0, calls, 0, calls.length);
+        transposes = other.transposes;
+        pixelsRelaxed = other.pixelsRelaxed;
+    }
+
+    // nanoseconds spent in the phase, not counting phases nested in it
+    public long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    // bytes the carving thread allocated in the phase, 0 if the JVM does not report allocations
+    public long bytes(Phase phase) {
+        return bytes[phase.ordinal()];
+    }
+
+    // number of times the phase was entered
+    public long calls(Phase phase) {
+        return calls[phase.ordinal()];
+    }
+
+    // nanoseconds spent in all phases
+    public long totalNanos() {
+        long total = 0;
+        for (long n : nanos)
+            total += n;
+        return total;
+    }
+
+    // physical transposes of the pixel and energy matrixes
+    public long transposes() {
+        return transposes;
+    }
+
+    // pixels whose distance the seam DP computed
+    public long pixelsRelaxed() {
+        return pixelsRelaxed;
+    }
+
+    // whether bytes() reports anything
+    public static boolean allocationsMeasured() {
+        return ALLOCATIONS != null;
+    }
+
+    // a copy that no longer changes
+    public CarverMetrics snapshot() {
+        return new CarverMetrics(this);
+    }
+
+    // the metrics as a JSON object
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"phases\": {\n");
+        Phase[] phases = Phase.values();
+        for (int p = 0; p < phases.length; p++) {
+            json.append(String.format("    \"%s\": { \"nanos\": %d, \"bytes\": %d, \"calls\": %d }%s\n",
+                    phases[p].key, nanos[p], bytes[p], calls[p], p + 1 < phases.length ? "," : ""));
+        }
+        json.append("  },\n");
+        json.append(String.format("  \"totalNanos\": %d,\n", totalNanos()));
+        json.append(String.format("  \"transposes\": %d,\n", transposes));
+        json.append(String.format("  \"pixelsRelaxed\": %d,\n", pixelsRelaxed));
+        json.append(String.format("  \"allocationsMeasured\": %b\n}\n", allocationsMeasured()));
+        return json.toString();
+    }
+
+    public String toString() {
+        return toJson();
+    }
+
+    // start charging to the phase, pausing the one it is nested in
+    void begin(Phase phase) {
+        if (depth == MAX_DEPTH)
+            throw new IllegalStateException("phases nested too deep");
+        charge();
+        stack[depth++] = phase;
+        calls[phase.ordinal()]++;
+    }
+
+    // stop charging to the innermost phase, resuming the one it was nested in
+    void end() {
+        if (depth == 0)
+            throw new IllegalStateException("no phase to end");
+        charge();
+        depth--;
+    }
+
+    void transposed() {
+        transposes++;
+    }
+
+    void relaxed(long pixels) {
+        pixelsRelaxed += pixels;
+    }
+
+    // charge the time and allocations since the last mark to the innermost phase and mark now
+    private void charge() {
+        long now = System.nanoTime();
+        long allocated = ALLOCATIONS == null ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        if (depth > 0) {
+            int p = stack[depth - 1].ordinal();
+            nanos[p] += now - markNanos;
+            bytes[p] += allocated - markBytes;
+        }
+        markNanos = now;
+        markBytes = allocated;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+                if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled())
+                    return counter;
+            }
+        } catch (LinkageError e) {
+            // not a HotSpot JVM
+        }
+        return null;
+    }
+
+}
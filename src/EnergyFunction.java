@@ -0,0 +1,232 @@
+/******************************************************************************
+ *  Compilation:  javac EnergyFunction.java
+ *  Execution:    none
+ *  Dependencies: SeamCarver.java
+ *
+ *  Energy of a pixel computed from the packed rgb values around it. The
+ *  pixels are addressed by storage indices [outer][inner], and every
+ *  function here gives the same energy whether or not the storage is
+ *  transposed. A function reads the pixels within its radius, either on the
+ *  cross through the pixel or on the whole square around it; pixels closer
+ *  than the radius to a border get the border energy. SeamCarver uses the
+ *  stencil to refresh only the energies a removed seam can change.
+ *
+ ******************************************************************************/
+
+public abstract class EnergyFunction {
+
+    // square root of the summed squared differences of the rgb components of the left and right
+    // and of the upper and lower neighbour, the classic seam carving energy
+    public static final EnergyFunction DUAL_GRADIENT = new DualGradient();
+
+    // magnitude of the 3x3 Sobel gradient over the rgb components, divided by 4 to the range of
+    // the dual gradient; smoothed across the gradient, so less sensitive to noise and fine texture
+    public static final EnergyFunction SOBEL = new Sobel();
+
+    // the colour differences a removal of the pixel brings together: the left and right and the
+    // upper and lower neighbour, as for the dual gradient, plus the cheapest pair of one of those
+    // across a corner, which a diagonal seam step joins
+    public static final EnergyFunction FORWARD = new Forward();
+
+    // pixel access for energies of single pixels
+    public interface Pixels {
+        int outer();
+
+        int inner();
+
+        int rgb(int i, int j);
+    }
+
+    // largest distance, along either index, of a pixel the energy reads
+    public abstract int radius();
+
+    // whether the energy reads the whole square within the radius, not only the cross through the pixel
+    public abstract boolean square();
+
+    // energies of positions from (inclusive) to to (exclusive) of the outer array center, whose
+    // first inner entries are in use; pixels[center - radius .. center + radius] must exist, and
+    // positions closer than the radius to either end get the border energy. A loop over plain
+    // arrays without calls or allocations, which the JIT can unroll
+    public abstract void fill(int[][] pixels, int center, int inner, double[] out, int from, int to);
+
+    public abstract void fill(int[][] pixels, int center, int inner, float[] out, int from, int to);
+
+    // energy of one pixel, the border energy near any border
+    public abstract double energy(Pixels pixels, int i, int j);
+
+    // whether pixel (i, j) is closer than the radius to a border
+    boolean isBorder(Pixels pixels, int i, int j) {
+        int r = radius();
+        return i < r || j < r || i >= pixels.outer() - r || j >= pixels.inner() - r;
+    }
+
+    // square sum of differences in the red, green and blue components of two packed pixels
+    static int squareGradient(int rgb1, int rgb2) {
+        int r = ((rgb1 >> 16) & 0XFF) - ((rgb2 >> 16) & 0XFF);
+        int g = ((rgb1 >> 8) & 0XFF) - ((rgb2 >> 8) & 0XFF);
+        int b = (rgb1 & 0XFF) - (rgb2 & 0XFF);
+        return r * r + g * g + b * b;
+    }
+
+    private static class DualGradient extends EnergyFunction {
+        public int radius() {
+            return 1;
+        }
+
+        public boolean square() {
+            return false;
+        }
+
+        public void fill(int[][] pixels, int center, int inner, double[] out, int from, int to) {
+            int[] before = pixels[center - 1];
+            int[] cur = pixels[center];
+            int[] after = pixels[center + 1];
+            int lo = Math.max(from, 1);
+            int hi = Math.min(to, inner - 1);
+            for (int j = from; j < Math.min(lo, to); j++)
+                out[j] = SeamCarver.BORDER_ENERGY;
+            for (int j = lo; j < hi; j++)
+                out[j] = Math.sqrt(squareGradient(before[j], after[j]) + squareGradient(cur[j - 1], cur[j + 1]));
+            for (int j = Math.max(hi, from); j < to; j++)
+                out[j] = SeamCarver.BORDER_ENERGY;
+        }
+
+        public void fill(int[][] pixels, int center, int inner, float[] out, int from, int to) {
+            int[] before = pixels[center - 1];
+            int[] cur = pixels[center];
+            int[] after = pixels[center + 1];
+            int lo = Math.max(from, 1);
+            int hi = Math.min(to, inner - 1);
+            for (int j = from; j < Math.min(lo, to); j++)
+                out[j] = (float) SeamCarver.BORDER_ENERGY;
+            for (int j = lo; j < hi; j++)
+                out[j] = (float) Math.sqrt(squareGradient(before[j], after[j]) + squareGradient(cur[j - 1], cur[j + 1]));
+            for (int j = Math.max(hi, from); j < to; j++)
+                out[j] = (float) SeamCarver.BORDER_ENERGY;
+        }
+
+        public double energy(Pixels pixels, int i, int j) {
+            if (isBorder(pixels, i, j))
+                return SeamCarver.BORDER_ENERGY;
+            return Math.sqrt(squareGradient(pixels.rgb(i - 1, j), pixels.rgb(i + 1, j))
+                    + squareGradient(pixels.rgb(i, j - 1), pixels.rgb(i, j + 1)));
+        }
+    }
+
+    private static class Sobel extends EnergyFunction {
+        public int radius() {
+            return 1;
+        }
+
+        public boolean square() {
+            return true;
+        }
+
+        public void fill(int[][] pixels, int center, int inner, double[] out, int from, int to) {
+            int[] before = pixels[center - 1];
+            int[] cur = pixels[center];
+            int[] after = pixels[center + 1];
+            int lo = Math.max(from, 1);
+            int hi = Math.min(to, inner - 1);
+            for (int j = from; j < Math.min(lo, to); j++)
+                out[j] = SeamCarver.BORDER_ENERGY;
+            for (int j = lo; j < hi; j++) {
+                out[j] = Math.sqrt(sobelSquare(before[j - 1], before[j], before[j + 1], cur[j - 1], cur[j + 1],
+                        after[j - 1], after[j], after[j + 1])) / 4;
+            }
+            for (int j = Math.max(hi, from); j < to; j++)
+                out[j] = SeamCarver.BORDER_ENERGY;
+        }
+
+        public void fill(int[][] pixels, int center, int inner, float[] out, int from, int to) {
+            int[] before = pixels[center - 1];
+            int[] cur = pixels[center];
+            int[] after = pixels[center + 1];
+            int lo = Math.max(from, 1);
+            int hi = Math.min(to, inner - 1);
+            for (int j = from; j < Math.min(lo, to); j++)
+                out[j] = (float) SeamCarver.BORDER_ENERGY;
+            for (int j = lo; j < hi; j++) {
+                out[j] = (float) (Math.sqrt(sobelSquare(before[j - 1], before[j], before[j + 1], cur[j - 1], cur[j + 1],
+                        after[j - 1], after[j], after[j + 1])) / 4);
+            }
+            for (int j = Math.max(hi, from); j < to; j++)
+                out[j] = (float) SeamCarver.BORDER_ENERGY;
+        }
+
+        public double energy(Pixels pixels, int i, int j) {
+            if (isBorder(pixels, i, j))
+                return SeamCarver.BORDER_ENERGY;
+            return Math.sqrt(sobelSquare(pixels.rgb(i - 1, j - 1), pixels.rgb(i - 1, j), pixels.rgb(i - 1, j + 1),
+                    pixels.rgb(i, j - 1), pixels.rgb(i, j + 1),
+                    pixels.rgb(i + 1, j - 1), pixels.rgb(i + 1, j), pixels.rgb(i + 1, j + 1))) / 4;
+        }
+
+        // square sum over the rgb components of both Sobel gradients, given the eight neighbours
+        // row by row; the outer gradient weighs the neighbours before and after 1, 2, 1
+        private static int sobelSquare(int b0, int b1, int b2, int c0, int c2, int a0, int a1, int a2) {
+            int sum = 0;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int outer = (a0 >> shift & 0XFF) + 2 * (a1 >> shift & 0XFF) + (a2 >> shift & 0XFF)
+                        - (b0 >> shift & 0XFF) - 2 * (b1 >> shift & 0XFF) - (b2 >> shift & 0XFF);
+                int inner = (b2 >> shift & 0XFF) + 2 * (c2 >> shift & 0XFF) + (a2 >> shift & 0XFF)
+                        - (b0 >> shift & 0XFF) - 2 * (c0 >> shift & 0XFF) - (a0 >> shift & 0XFF);
+                sum += outer * outer + inner * inner;
+            }
+            return sum;
+        }
+    }
+
+    private static class Forward extends EnergyFunction {
+        public int radius() {
+            return 1;
+        }
+
+        public boolean square() {
+            return false;
+        }
+
+        public void fill(int[][] pixels, int center, int inner, double[] out, int from, int to) {
+            int[] before = pixels[center - 1];
+            int[] cur = pixels[center];
+            int[] after = pixels[center + 1];
+            int lo = Math.max(from, 1);
+            int hi = Math.min(to, inner - 1);
+            for (int j = from; j < Math.min(lo, to); j++)
+                out[j] = SeamCarver.BORDER_ENERGY;
+            for (int j = lo; j < hi; j++)
+                out[j] = Math.sqrt(forwardSquare(before[j], cur[j - 1], cur[j + 1], after[j]));
+            for (int j = Math.max(hi, from); j < to; j++)
+                out[j] = SeamCarver.BORDER_ENERGY;
+        }
+
+        public void fill(int[][] pixels, int center, int inner, float[] out, int from, int to) {
+            int[] before = pixels[center - 1];
+            int[] cur = pixels[center];
+            int[] after = pixels[center + 1];
+            int lo = Math.max(from, 1);
+            int hi = Math.min(to, inner - 1);
+            for (int j = from; j < Math.min(lo, to); j++)
+                out[j] = (float) SeamCarver.BORDER_ENERGY;
+            for (int j = lo; j < hi; j++)
+                out[j] = (float) Math.sqrt(forwardSquare(before[j], cur[j - 1], cur[j + 1], after[j]));
+            for (int j = Math.max(hi, from); j < to; j++)
+                out[j] = (float) SeamCarver.BORDER_ENERGY;
+        }
+
+        public double energy(Pixels pixels, int i, int j) {
+            if (isBorder(pixels, i, j))
+                return SeamCarver.BORDER_ENERGY;
+            return Math.sqrt(forwardSquare(pixels.rgb(i - 1, j), pixels.rgb(i, j - 1),
+                    pixels.rgb(i, j + 1), pixels.rgb(i + 1, j)));
+        }
+
+        // both straight joins plus the cheapest corner join of the four neighbours
+        private static int forwardSquare(int before, int left, int right, int after) {
+            int corner = Math.min(Math.min(squareGradient(before, left), squareGradient(before, right)),
+                    Math.min(squareGradient(after, left), squareGradient(after, right)));
+            return squareGradient(before, after) + squareGradient(left, right) + corner;
+        }
+    }
+
+}
@@ -0,0 +1,410 @@
+/******************************************************************************
+ *  Compilation:  javac ImageLoader.java
+ *  Execution:    java ImageLoader input.png output.png width height [x y w h]
+ *  Dependencies: SeamCarver.java
+ *
+ *  Decode images straight into seam carvers with an ImageReader, on a small
+ *  pool of decoder threads. Only a region of interest is decoded if one is
+ *  given, and a source much larger than the size it is carved to is
+ *  decoded subsampled, every n-th pixel of every n-th row. Rows of PNG and
+ *  baseline JPEG images are handed to the carver while the rest of the
+ *  image is still being decoded, so the energies of the first rows are
+ *  computed alongside the decoding of the last ones.
+ *
+ ******************************************************************************/
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Node;
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class ImageLoader implements Closeable {
+
+    // rows decoded before they are handed to the carver
+    private static final int STRIP = 64;
+    // a subsampled image keeps at least this many times the target size along each axis,
+    // so the carver still has seams to choose from
+    private static final int CARVE_SLACK = 2;
+
+    private final ExecutorService decoders;
+
+    // decode on the given number of threads
+    public ImageLoader(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        decoders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "image-decoder");
+                // a loader that was never closed does not keep the JVM alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // start decoding the region of the image (the whole image if null), keeping every subsampling-th
+    // pixel of every subsampling-th row; the header is read right away, the pixels on the pool
+    public Pending start(File file, Rectangle region, int subsampling) {
+        if (file == null)
+            throw new IllegalArgumentException("file is null");
+        if (subsampling < 1)
+            throw new IllegalArgumentException("subsampling must be at least 1");
+        Pending pending = new Pending(file, region, subsampling);
+        try {
+            decoders.execute(pending);
+        } catch (RuntimeException e) {
+            pending.dispose();
+            throw e;
+        }
+        return pending;
+    }
+
+    // start decoding the whole image, subsampled as far as carving it to the target size allows
+    public Pending start(File file, int targetWidth, int targetHeight) {
+        Rectangle size = size(file);
+        return start(file, null, subsampling(size.width, size.height, targetWidth, targetHeight));
+    }
+
+    // decode the region of the image, subsampled, into a carver
+    public SeamCarver load(File file, Rectangle region, int subsampling) {
+        return start(file, region, subsampling).carver();
+    }
+
+    // largest subsampling that leaves an image of the source size at least CARVE_SLACK times
+    // the target size along both axes, 1 if the target is not much smaller than the source
+    public static int subsampling(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        if (targetWidth < 1 || targetHeight < 1)
+            throw new IllegalArgumentException("target size must be at least 1x1");
+        int n = Math.min(sourceWidth / (CARVE_SLACK * targetWidth), sourceHeight / (CARVE_SLACK * targetHeight));
+        return Math.max(1, n);
+    }
+
+    // width and height of an image, from its header
+    public static Rectangle size(File file) {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = reader(stream, file);
+            try {
+                return new Rectangle(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // stop the decoders; images not started yet fail, images being decoded are finished
+    public void close() {
+        for (Runnable task : decoders.shutdownNow())
+            ((Pending) task).cancel();
+    }
+
+    // helper functions
+
+    private static ImageReader reader(ImageInputStream stream, File file) {
+        if (stream == null)
+            throw new IllegalArgumentException("cannot read " + file);
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext())
+            throw new IllegalArgumentException("no image reader for " + file);
+        ImageReader reader = readers.next();
+        reader.setInput(stream, true, true);
+        return reader;
+    }
+
+    // whether the reader delivers every row once, top to bottom: not for interlaced PNG or
+    // progressive JPEG, whose rows are refined pass after pass, and not for formats not known here
+    private static boolean rowsInOrder(IIOMetadata metadata) {
+        if (metadata == null)
+            return false;
+        String format = metadata.getNativeMetadataFormatName();
+        if ("javax_imageio_png_1.0".equals(format)) {
+            Node header = child(metadata.getAsTree(format), "IHDR");
+            return header != null && "none".equals(attribute(header, "interlaceMethod"));
+        }
+        if ("javax_imageio_jpeg_image_1.0".equals(format)) {
+            Node frame = child(child(metadata.getAsTree(format), "markerSequence"), "sof");
+            // process 2 is progressive
+            return frame != null && !"2".equals(attribute(frame, "process"));
+        }
+        return false;
+    }
+
+    private static Node child(Node node, String name) {
+        if (node == null)
+            return null;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals(name))
+                return child;
+        }
+        return null;
+    }
+
+    private static String attribute(Node node, String name) {
+        Node attribute = node.getAttributes().getNamedItem(name);
+        return attribute == null ? null : attribute.getNodeValue();
+    }
+
+    // an image being decoded on the pool; the thread asking for its carver builds it from the
+    // rows decoded so far and waits for the rest
+    public static class Pending implements Runnable {
+        private final File file;
+        private final ImageInputStream stream;
+        private final ImageReader reader;
+        private final ImageReadParam param;
+        private final boolean inOrder;
+        private final boolean hasAlpha;
+        private final int width;
+        private final int height;
+
+        // written by the decoder, guarded by this
+        private BufferedImage image;
+        private int rowsDecoded;
+        private boolean done;
+        private Throwable failure;
+
+        private Pending(File file, Rectangle region, int subsampling) {
+            this.file = file;
+            try {
+                stream = ImageIO.createImageInputStream(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try {
+                reader = reader(stream, file);
+            } catch (RuntimeException e) {
+                close(stream);
+                throw e;
+            }
+            try {
+                Rectangle bounds = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+                if (region == null)
+                    region = bounds;
+                if (region.isEmpty() || !bounds.contains(region))
+                    throw new IllegalArgumentException("region " + region + " is not inside the " + bounds.width
+                            + "x" + bounds.height + " image");
+                param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                ImageTypeSpecifier type = intType(reader);
+                if (type != null)
+                    param.setDestinationType(type);
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                hasAlpha = type != null ? type.getColorModel().hasAlpha()
+                        : types.hasNext() && types.next().getColorModel().hasAlpha();
+                inOrder = rowsInOrder(reader.getImageMetadata(0));
+                width = (region.width + subsampling - 1) / subsampling;
+                height = (region.height + subsampling - 1) / subsampling;
+            } catch (IOException e) {
+                dispose();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                dispose();
+                throw e;
+            }
+        }
+
+        // width of the decoded image
+        public int width() {
+            return width;
+        }
+
+        // height of the decoded image
+        public int height() {
+            return height;
+        }
+
+        // carver of the decoded image, built while the decoding goes on
+        public SeamCarver carver() {
+            SeamCarver carver = new SeamCarver(width, height, hasAlpha);
+            int[] buffer = null;
+            int from = 0;
+            while (from < height) {
+                BufferedImage decoded;
+                int to;
+                synchronized (this) {
+                    while (failure == null && !done && rowsDecoded - from < STRIP)
+                        await();
+                    if (failure != null)
+                        throw failed();
+                    decoded = image;
+                    to = done ? height : rowsDecoded;
+                }
+                WritableRaster raster = decoded.getRaster();
+                if (raster.getDataBuffer() instanceof DataBufferInt
+                        && (decoded.getType() == BufferedImage.TYPE_INT_RGB || decoded.getType() == BufferedImage.TYPE_INT_ARGB)) {
+                    SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                    DataBufferInt data = (DataBufferInt) raster.getDataBuffer();
+                    int offset = data.getOffset() + model.getOffset(-raster.getSampleModelTranslateX(),
+                            from - raster.getSampleModelTranslateY());
+                    carver.fillRows(data.getData(), offset, model.getScanlineStride(), from, to);
+                } else {
+                    if (buffer == null || buffer.length < (to - from) * width)
+                        buffer = new int[(to - from) * width];
+                    decoded.getRGB(0, from, width, to - from, buffer, 0, width);
+                    carver.fillRows(buffer, 0, width, from, to);
+                }
+                from = to;
+            }
+            return carver;
+        }
+
+        // decode on the pool
+        public void run() {
+            try {
+                if (inOrder) {
+                    reader.addIIOReadUpdateListener(new IIOReadUpdateListener() {
+                        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                                int width, int height, int periodX, int periodY, int[] bands) {
+                            decoded(theImage, minY + height);
+                        }
+
+                        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+                                int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+                        }
+
+                        public void passComplete(ImageReader source, BufferedImage theImage) {
+                        }
+
+                        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+                                int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+                        }
+
+                        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+                                int width, int height, int periodX, int periodY, int[] bands) {
+                        }
+
+                        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+                        }
+                    });
+                }
+                BufferedImage result = reader.read(0, param);
+                synchronized (this) {
+                    image = result;
+                    done = true;
+                    notifyAll();
+                }
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+            } finally {
+                dispose();
+            }
+        }
+
+        // fail an image the pool will not decode any more
+        private void cancel() {
+            synchronized (this) {
+                failure = new IllegalStateException("loader closed before " + file + " was decoded");
+                notifyAll();
+            }
+            dispose();
+        }
+
+        // rows above row end of the destination are final
+        private synchronized void decoded(BufferedImage destination, int end) {
+            image = destination;
+            // a strip at a time is enough for the waiting carver
+            if (end / STRIP > rowsDecoded / STRIP)
+                notifyAll();
+            rowsDecoded = Math.max(rowsDecoded, end);
+        }
+
+        private void await() {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while decoding " + file, e);
+            }
+        }
+
+        private RuntimeException failed() {
+            if (failure instanceof IOException)
+                return new UncheckedIOException("cannot decode " + file, (IOException) failure);
+            if (failure instanceof RuntimeException)
+                return (RuntimeException) failure;
+            return new IllegalStateException("cannot decode " + file, failure);
+        }
+
+        private void dispose() {
+            reader.dispose();
+            close(stream);
+        }
+
+        private static void close(ImageInputStream stream) {
+            if (stream == null)
+                return;
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // nothing left to read from it
+            }
+        }
+
+        // the int rgb or argb type among the reader's destination types, null if it has none
+        private static ImageTypeSpecifier intType(ImageReader reader) throws IOException {
+            for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+                ImageTypeSpecifier type = types.next();
+                int bufferedType = type.getBufferedImageType();
+                if (bufferedType == BufferedImage.TYPE_INT_RGB || bufferedType == BufferedImage.TYPE_INT_ARGB)
+                    return type;
+            }
+            return null;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 4 && args.length != 8) {
+            StdOut.println("Usage:\njava ImageLoader [input] [output] [width] [height] [x y w h]");
+            return;
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        int width = Integer.parseInt(args[2]);
+        int height = Integer.parseInt(args[3]);
+        Rectangle region = null;
+        if (args.length == 8) {
+            region = new Rectangle(Integer.parseInt(args[4]), Integer.parseInt(args[5]),
+                    Integer.parseInt(args[6]), Integer.parseInt(args[7]));
+        }
+
+        try (ImageLoader loader = new ImageLoader(1)) {
+            Stopwatch sw = new Stopwatch();
+            Rectangle source = region != null ? region : size(input);
+            int subsampling = subsampling(source.width, source.height, width, height);
+            SeamCarver sc = loader.load(input, region, subsampling);
+            StdOut.printf("decoded %dx%d at subsampling %d in %.3f seconds\n", sc.width(), sc.height(), subsampling, sw.elapsedTime());
+            sc.resizeTo(Math.min(width, sc.width()), Math.min(height, sc.height()));
+            ImageIO.write(sc.image(), "png", output);
+            StdOut.printf("carved to %dx%d in %.3f seconds\n", sc.width(), sc.height(), sw.elapsedTime());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+/******************************************************************************
+ *  Compilation:  javac MappedStorage.java
+ *  Execution:    none
+ *  Dependencies: SeamCarver.java
+ *
+ *  Off-heap pixel and energy matrixes for SeamCarver, kept in a memory-mapped
+ *  scratch file. Like the heap matrixes they are indexed [outer][inner];
+ *  every outer array keeps the capacity it was created with, so seams are
+ *  removed in place. The file also holds the edge table of the seam DP, a
+ *  byte per pixel in seam order. The file is mapped in regions of whole
+ *  outer arrays to stay below the 2GB limit of a single MappedByteBuffer,
+ *  and it is deleted as soon as it is mapped so nothing is left behind;
+ *  close() unmaps it right away instead of whenever the buffers are
+ *  garbage collected.
+ *
+ ******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedStorage {
+
+    // largest region mapped at once
+    private static final long REGION_BYTES = 1L << 30;
+
+    private final File directory;
+    // capacity of every outer array
+    private final int stride;
+    private final int arraysPerRegion;
+    private final IntBuffer[] pixels;
+    private final DoubleBuffer[] energies;
+    private final ByteBuffer[] edges;
+    // every mapping, for close()
+    private final MappedByteBuffer[] mappings;
+    private int outer;
+    private int inner;
+    // scratch arrays for in-place removal
+    private final int[] pixelTail;
+    private final double[] energyTail;
+
+    // map a scratch file for outer-by-inner pixels and energies in the given directory
+    public MappedStorage(File directory, int outer, int inner) {
+        this(directory, outer, inner, inner);
+    }
+
+    // same, with room for capacity inner positions in every outer array
+    private MappedStorage(File directory, int outer, int inner, int capacity) {
+        this.directory = directory;
+        this.outer = outer;
+        this.inner = inner;
+        this.stride = capacity;
+        this.arraysPerRegion = (int) Math.max(1, Math.min(outer, REGION_BYTES / ((long) stride * 8)));
+        int regions = (outer + arraysPerRegion - 1) / arraysPerRegion;
+        this.pixels = new IntBuffer[regions];
+        this.energies = new DoubleBuffer[regions];
+        this.edges = new ByteBuffer[regions];
+        this.mappings = new MappedByteBuffer[3 * regions];
+        this.pixelTail = new int[stride];
+        this.energyTail = new double[stride];
+        long pixelBytes = (long) arraysPerRegion * stride * 4;
+        long energyBytes = (long) arraysPerRegion * stride * 8;
+        long edgeBytes = (long) arraysPerRegion * stride;
+        try {
+            File file = File.createTempFile("seamcarver", ".bin", directory);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = raf.getChannel();
+                long position = 0;
+                for (int r = 0; r < regions; r++) {
+                    mappings[3 * r] = channel.map(FileChannel.MapMode.READ_WRITE, position, pixelBytes);
+                    pixels[r] = mappings[3 * r].order(ByteOrder.nativeOrder()).asIntBuffer();
+                    position += pixelBytes;
+                    mappings[3 * r + 1] = channel.map(FileChannel.MapMode.READ_WRITE, position, energyBytes);
+                    energies[r] = mappings[3 * r + 1].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+                    position += energyBytes;
+                    mappings[3 * r + 2] = channel.map(FileChannel.MapMode.READ_WRITE, position, edgeBytes);
+                    edges[r] = mappings[3 * r + 2];
+                    position += edgeBytes;
+                }
+            } finally {
+                // the mappings stay valid once the file is gone
+                if (!file.delete())
+                    file.deleteOnExit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot map scratch file in " + directory, e);
+        }
+    }
+
+    public int outer() {
+        return outer;
+    }
+
+    public int inner() {
+        return inner;
+    }
+
+    public int rgb(int i, int j) {
+        return pixels[i / arraysPerRegion].get(index(i, j));
+    }
+
+    public void setRgb(int i, int j, int rgb) {
+        pixels[i / arraysPerRegion].put(index(i, j), rgb);
+    }
+
+    public double energy(int i, int j) {
+        return energies[i / arraysPerRegion].get(index(i, j));
+    }
+
+    public void setEnergy(int i, int j, double energy) {
+        energies[i / arraysPerRegion].put(index(i, j), energy);
+    }
+
+    // copy the pixels of outer array i into dst
+    public void readPixels(int i, int[] dst) {
+        IntBuffer view = pixels[i / arraysPerRegion].duplicate();
+        view.position(index(i, 0));
+        view.get(dst, 0, inner);
+    }
+
+    // copy energies lo..hi of outer array i into the same positions of dst
+    public void readEnergies(int i, int lo, int hi, double[] dst) {
+        DoubleBuffer view = energies[i / arraysPerRegion].duplicate();
+        view.position(index(i, lo));
+        view.get(dst, lo, hi - lo + 1);
+    }
+
+    // copy energies lo..hi at inner position j of every outer array into the same positions of dst
+    public void readEnergiesAlong(int j, int lo, int hi, double[] dst) {
+        for (int i = lo; i <= hi; i++)
+            dst[i] = energy(i, j);
+    }
+
+    // overwrite the energies of outer array i with src
+    public void writeEnergies(int i, double[] src) {
+        DoubleBuffer view = energies[i / arraysPerRegion].duplicate();
+        view.position(index(i, 0));
+        view.put(src, 0, inner);
+    }
+
+    // entry index of the DP edge table, step * positions + position for any steps-by-positions
+    // table of at most outer * inner entries
+    public byte edge(long index) {
+        long perRegion = (long) arraysPerRegion * stride;
+        return edges[(int) (index / perRegion)].get((int) (index % perRegion));
+    }
+
+    public void setEdge(long index, byte edge) {
+        long perRegion = (long) arraysPerRegion * stride;
+        edges[(int) (index / perRegion)].put((int) (index % perRegion), edge);
+    }
+
+    // copy the first length entries of src to the edge table from index on
+    public void writeEdges(long index, byte[] src, int length) {
+        long perRegion = (long) arraysPerRegion * stride;
+        int done = 0;
+        while (done < length) {
+            // a step may straddle two regions
+            int offset = (int) ((index + done) % perRegion);
+            int count = (int) Math.min(length - done, perRegion - offset);
+            ByteBuffer view = edges[(int) ((index + done) / perRegion)].duplicate();
+            view.position(offset);
+            view.put(src, done, count);
+            done += count;
+        }
+    }
+
+    // unmap the scratch file; the storage must not be used afterwards, its buffers are dropped so
+    // a use fails with an exception instead of reading unmapped memory
+    public void close() {
+        for (int r = 0; r < pixels.length; r++) {
+            pixels[r] = null;
+            energies[r] = null;
+            edges[r] = null;
+        }
+        for (int m = 0; m < mappings.length; m++) {
+            if (mappings[m] != null)
+                unmap(mappings[m]);
+            mappings[m] = null;
+        }
+    }
+
+    // remove one inner position per outer array
+    public void removeAcross(int[] seam) {
+        for (int i = 0; i < outer; i++) {
+            int tail = inner - seam[i] - 1;
+            IntBuffer pixelView = pixels[i / arraysPerRegion].duplicate();
+            pixelView.position(index(i, seam[i] + 1));
+            pixelView.get(pixelTail, 0, tail);
+            pixelView.position(index(i, seam[i]));
+            pixelView.put(pixelTail, 0, tail);
+            DoubleBuffer energyView = energies[i / arraysPerRegion].duplicate();
+            energyView.position(index(i, seam[i] + 1));
+            energyView.get(energyTail, 0, tail);
+            energyView.position(index(i, seam[i]));
+            energyView.put(energyTail, 0, tail);
+        }
+        inner--;
+    }
+
+    // remove one outer array position per inner position
+    public void removeAlong(int[] seam) {
+        for (int j = 0; j < inner; j++) {
+            for (int i = seam[j]; i < outer - 1; i++) {
+                setRgb(i, j, rgb(i + 1, j));
+                setEnergy(i, j, energy(i + 1, j));
+            }
+        }
+        outer--;
+    }
+
+    // a new scratch file holding the same matrixes
+    public MappedStorage copy() {
+        MappedStorage res = new MappedStorage(directory, outer, inner);
+        int[] pixelRow = new int[inner];
+        double[] energyRow = new double[inner];
+        for (int i = 0; i < outer; i++) {
+            readPixels(i, pixelRow);
+            readEnergies(i, 0, inner - 1, energyRow);
+            IntBuffer view = res.pixels[i / res.arraysPerRegion].duplicate();
+            view.position(res.index(i, 0));
+            view.put(pixelRow, 0, inner);
+            res.writeEnergies(i, energyRow);
+        }
+        return res;
+    }
+
+    // a new scratch file with sorted.length more inner positions, the pixels at the sorted positions
+    // of every outer array duplicated; energies are left for the caller to compute
+    public MappedStorage insertAcross(int[][] sorted) {
+        int extra = sorted[0].length;
+        MappedStorage res = new MappedStorage(directory, outer, inner + extra);
+        int[] pixelRow = new int[inner];
+        int[] wider = new int[inner + extra];
+        for (int i = 0; i < outer; i++) {
+            readPixels(i, pixelRow);
+            SeamCarver.insertPositions(pixelRow, sorted[i], inner, wider);
+            IntBuffer view = res.pixels[i / res.arraysPerRegion].duplicate();
+            view.position(res.index(i, 0));
+            view.put(wider, 0, inner + extra);
+        }
+        return res;
+    }
+
+    // one more inner position per outer array, values[i] at position seam[i] of outer array i; in
+    // place while the outer arrays have room, otherwise in a new scratch file with room for half
+    // as many more. Energies are shifted with the pixels, the one at the seam is left for the
+    // caller to compute
+    public MappedStorage insertAcross(int[] seam, int[] values) {
+        MappedStorage res = this;
+        if (inner == stride) {
+            res = new MappedStorage(directory, outer, inner, inner + inner / 2 + 1);
+            int[] pixelRow = new int[inner];
+            double[] energyRow = new double[inner];
+            for (int i = 0; i < outer; i++) {
+                readPixels(i, pixelRow);
+                readEnergies(i, 0, inner - 1, energyRow);
+                IntBuffer view = res.pixels[i / res.arraysPerRegion].duplicate();
+                view.position(res.index(i, 0));
+                view.put(pixelRow, 0, inner);
+                res.writeEnergies(i, energyRow);
+            }
+        }
+        for (int i = 0; i < outer; i++) {
+            int tail = inner - seam[i];
+            IntBuffer pixelView = res.pixels[i / res.arraysPerRegion].duplicate();
+            pixelView.position(res.index(i, seam[i]));
+            pixelView.get(res.pixelTail, 0, tail);
+            pixelView.position(res.index(i, seam[i] + 1));
+            pixelView.put(res.pixelTail, 0, tail);
+            DoubleBuffer energyView = res.energies[i / res.arraysPerRegion].duplicate();
+            energyView.position(res.index(i, seam[i]));
+            energyView.get(res.energyTail, 0, tail);
+            energyView.position(res.index(i, seam[i] + 1));
+            energyView.put(res.energyTail, 0, tail);
+            res.setRgb(i, seam[i], values[i]);
+        }
+        res.inner = inner + 1;
+        return res;
+    }
+
+    // a new scratch file holding the transposed matrixes
+    public MappedStorage transpose() {
+        MappedStorage res = new MappedStorage(directory, inner, outer);
+        int[] pixelRow = new int[inner];
+        double[] energyRow = new double[inner];
+        for (int i = 0; i < outer; i++) {
+            readPixels(i, pixelRow);
+            readEnergies(i, 0, inner - 1, energyRow);
+            for (int j = 0; j < inner; j++) {
+                res.setRgb(j, i, pixelRow[j]);
+                res.setEnergy(j, i, energyRow[j]);
+            }
+        }
+        return res;
+    }
+
+    private int index(int i, int j) {
+        return (i % arraysPerRegion) * stride + j;
+    }
+
+    // release a mapping now: Unsafe.invokeCleaner() from Java 9 on, the buffer's cleaner on Java 8;
+    // where neither is there the mapping goes when the buffer is garbage collected
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException e) {
+            // left to the garbage collector
+        } catch (RuntimeException e) {
+            // inaccessible, left to the garbage collector too
+        }
+    }
+
+}
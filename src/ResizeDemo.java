@@ -1,25 +1,53 @@
 /******************************************************************************
  *  Compilation:  javac ResizeDemo.java
- *  Execution:    java ResizeDemo input.png columnsToRemove rowsToRemove
- *  Dependencies: SeamCarver.java SCUtility.java
+ *  Execution:    java ResizeDemo input.png columnsToRemove rowsToRemove [optimal] [metrics=file.json] [energy=sobel]
+ *  Dependencies: SeamCarver.java SCUtility.java EnergyFunction.java
  *                
  *
  *  Read image from file specified as command line argument. Use SeamCarver
- *  to remove number of rows and columns specified as command line arguments.
+ *  to remove number of rows and columns specified as command line arguments,
+ *  in the order picked by the transport map, an approximation of the best
+ *  order, if "optimal" is given. With
+ *  metrics=file.json the per-phase metrics of the resize are written to that
+ *  file; run with -Dseamcarver.metrics=true to include the constructor.
+ *  energy=dual, energy=sobel or energy=forward picks the energy function.
  *  Show the images and print time elapsed to screen.
  *
  ******************************************************************************/
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
 import edu.princeton.cs.algs4.Picture;
 import edu.princeton.cs.algs4.StdOut;
 import edu.princeton.cs.algs4.Stopwatch;
 
 public class ResizeDemo {
     public static void main(String[] args) {
-        if (args.length != 3) {
-            StdOut.println("Usage:\njava ResizeDemo [image filename] [num cols to remove] [num rows to remove]");
+        if (args.length < 3 || args.length > 6) {
+            StdOut.println("Usage:\njava ResizeDemo [image filename] [num cols to remove] [num rows to remove] [optimal (transport map order)] [metrics=file.json] [energy=dual|sobel|forward]");
             return;
         }
+        boolean optimal = false;
+        String metricsFile = null;
+        EnergyFunction energyFunction = EnergyFunction.DUAL_GRADIENT;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("optimal"))
+                optimal = true;
+            else if (args[i].startsWith("metrics="))
+                metricsFile = args[i].substring("metrics=".length());
+            else if (args[i].equals("energy=dual"))
+                energyFunction = EnergyFunction.DUAL_GRADIENT;
+            else if (args[i].equals("energy=sobel"))
+                energyFunction = EnergyFunction.SOBEL;
+            else if (args[i].equals("energy=forward"))
+                energyFunction = EnergyFunction.FORWARD;
+            else
+                throw new IllegalArgumentException("unknown option " + args[i]);
+        }
 
         Picture inputImg = new Picture(args[0]);
         int removeColumns = Integer.parseInt(args[1]);
@@ -27,23 +55,29 @@ public class ResizeDemo {
 
         StdOut.printf("image is %d columns by %d rows\n", inputImg.width(), inputImg.height());
         SeamCarver sc = new SeamCarver(inputImg);
+        if (energyFunction != EnergyFunction.DUAL_GRADIENT)
+            sc.setEnergyFunction(energyFunction);
+        if (metricsFile != null && sc.metrics() == null)
+            sc.setMetrics(true);
 
         Stopwatch sw = new Stopwatch();
 
-        for (int i = 0; i < removeRows; i++) {
-            int[] horizontalSeam = sc.findHorizontalSeam();
-            sc.removeHorizontalSeam(horizontalSeam);
-        }
-
-        for (int i = 0; i < removeColumns; i++) {
-            int[] verticalSeam = sc.findVerticalSeam();
-            sc.removeVerticalSeam(verticalSeam);
-        }
+        if (optimal)
+            StdOut.printf("total seam energy is %.2f\n", sc.resizeToOptimal(sc.width() - removeColumns, sc.height() - removeRows));
+        else
+            sc.resizeTo(sc.width() - removeColumns, sc.height() - removeRows);
         Picture outputImg = sc.picture();
 
         StdOut.printf("new image size is %d columns by %d rows\n", sc.width(), sc.height());
 
         StdOut.println("Resizing time: " + sw.elapsedTime() + " seconds.");
+        if (metricsFile != null) {
+            try {
+                Files.write(Paths.get(metricsFile), sc.metrics().toJson().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         inputImg.show();
         outputImg.show();
     }
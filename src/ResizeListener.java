@@ -0,0 +1,17 @@
+/******************************************************************************
+ *  Compilation:  javac ResizeListener.java
+ *  Execution:    none
+ *  Dependencies: none
+ *
+ *  Progress callback for the bulk SeamCarver jobs. Called after every
+ *  removed seam; returning false cancels the rest of the job and leaves
+ *  the carver at the size reached so far.
+ *
+ ******************************************************************************/
+
+public interface ResizeListener {
+
+    // called after each seam with the number of seams removed so far and in total
+    boolean seamRemoved(int removed, int total);
+
+}
@@ -85,6 +85,17 @@ public class SCUtility {
     }
 
 
+    // Total energy of removing k seams in batches of pixel-disjoint seams minus the total
+    // energy of the exact greedy carve, to measure what a batch size costs in quality.
+    public static double batchCostDifference(Picture picture, boolean horizontal, int k, int batch) {
+        SeamCarver exact = new SeamCarver(picture);
+        SeamCarver batched = new SeamCarver(picture);
+        if (horizontal)
+            return batched.removeHorizontalSeams(k, batch) - exact.removeHorizontalSeams(k, 1);
+        return batched.removeVerticalSeams(k, batch) - exact.removeVerticalSeams(k, 1);
+    }
+
+
     // This method is useful for debugging seams. It overlays red
     // pixels over the calculate seam. Due to the lack of a copy
     // constructor, it also alters the original picture.
@@ -1,31 +1,240 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 import edu.princeton.cs.algs4.Picture;
 import edu.princeton.cs.algs4.StdOut;
 
 public class SeamCarver {
 
+    // number of consecutive strided seam operations before a physical transpose pays off
+    private static final int TRANSPOSE_RUN = 8;
+    // smallest number of positions per parallel DP chunk, narrower pictures run sequentially
+    private static final int PARALLEL_CHUNK = 512;
+    // energy of a border pixel
+    static final double BORDER_ENERGY = 1000.00;
+    // edgeTo mark of a pixel already taken by a seam of the current batch
+    private static final byte CLAIMED = 2;
+
+    // both matrixes are indexed [col][row], or [row][col] when transposed
     private int[][] rgbMatrix;
     private double[][] energyMatrix;
+    // used part of the heap matrixes, removed seams leave slack at the ends of their arrays
+    private int outerCount;
+    private int innerCount;
+    // float energies replacing energyMatrix in compact mode, null otherwise
+    private float[][] compactEnergyMatrix;
+    // off-heap replacement for both matrixes, null when they live on the heap
+    private MappedStorage mapped;
+    private boolean transposed;
+    // consecutive seam operations that had to walk against the storage layout
+    private int stridedRun;
+    // DP tables in seam order [step][position], edges are offsets -1, 0 or 1 to the previous step;
+    // they are kept between seams and updated incrementally after each removal. The off-heap mode
+    // has none: it keeps two rolling rows of distances and the edges in the scratch file
+    private double[][] distTo;
+    private float[][] compactDistTo;
+    private byte[][] edgeTo;
+    private boolean tablesValid;
+    private boolean tablesVertical;
+    // energies of one step gathered in seam order when they are not a storage row
+    private double[] line;
+    // runs the full DP pass in parallel, null for sequential
+    private ForkJoinPool pool;
+    // pools shared by all carvers, one per parallelism level
+    private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<Integer, ForkJoinPool>();
+    // coarse-to-fine search settings and the reused energy grids of levels 1, 2, ... in seam order
+    private int pyramidLevels;
+    private int pyramidBand;
+    private final List<double[][]> pyramid = new ArrayList<double[][]>();
+    private double[][] pyramidLines;
+    // range of positions whose distance changed in the last relax() call, empty if lo > hi
+    private int changedLo;
+    private int changedHi;
+    // per-phase metrics, null unless turned on with setMetrics() or -Dseamcarver.metrics=true
+    private static final boolean METRICS_BY_DEFAULT = Boolean.getBoolean("seamcarver.metrics");
+    private CarverMetrics metrics;
+    // banded search: positions either side of the last removed seam searched first, 0 when off,
+    // and how much more than the seam of the last full search a corridor seam may cost
+    private int searchBand;
+    private double bandTolerance;
+    // last seam of each direction removed one at a time, and the seam energy of the last full
+    // search per direction
+    private int[] lastVerticalSeam;
+    private int[] lastHorizontalSeam;
+    private double lastFullCostVertical;
+    private double lastFullCostHorizontal;
+    // seams the corridor was enough for, and corridor searches that fell back to the full search
+    private long bandedSeams;
+    private long bandFallbacks;
+    // whether image() keeps the alpha channel, true for pictures that came with one
+    private boolean hasAlpha;
+    // side of the square tiles the pixels are transposed in on export
+    private static final int EXPORT_TILE = 64;
+    // seam history for undo() and redo(): the log of removed seams, the pixels each one took with
+    // it, and how many of them are removed now; null unless turned on with setHistory()
+    private SeamLog history;
+    private List<int[]> historyPixels;
+    private int historyApplied;
+    // energy of a pixel, and the storage as the pixels it reads single energies from
+    private EnergyFunction energyFunction = EnergyFunction.DUAL_GRADIENT;
+    private final EnergyFunction.Pixels storage = new EnergyFunction.Pixels() {
+        public int outer() {
+            return outerSize();
+        }
+
+        public int inner() {
+            return innerSize();
+        }
+
+        public int rgb(int i, int j) {
+            return pixelAt(i, j);
+        }
+    };
 
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) {
+        this(picture, false);
+    }
+
+    // create a seam carver object; in compact mode energies and the seam DP use float
+    // instead of double, 8 instead of 16 bytes of working state per pixel. Energies are at
+    // most 1000 and are rounded with a relative error of at most 2^-24, and a seam total
+    // over n pixels stays within n * ulp(total) / 2 of the double result (at most 1000 for
+    // a 4000-pixel seam totalling under 2^22, far less in practice as roundings cancel),
+    // so only seams whose totals are closer than that may be picked differently
+    public SeamCarver(Picture picture, boolean compact) {
         if (picture == null)
             throw new IllegalArgumentException("constructor argument is null");
         int width = picture.width();
         int height = picture.height();
-        // initialize rgb matrix first
-        rgbMatrix = new int[width][height];
-        for (int col = 0; col < width; col++) {
-            for (int row = 0; row < height; row++) {
-                rgbMatrix[col][row] = picture.getRGB(col, row);
+        if (METRICS_BY_DEFAULT)
+            metrics = new CarverMetrics();
+        // initialize rgb matrix first, a row per outer array like every other constructor
+        transposed = true;
+        outerCount = height;
+        innerCount = width;
+        rgbMatrix = new int[height][width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                rgbMatrix[row][col] = picture.getRGB(col, row);
             }
         }
         // then initialize energy matrix
-        energyMatrix = new double[width][height];
-        for (int col = 0; col < width; col++) {
-            for (int row = 0; row < height; row++) {
-                energyMatrix[col][row] = energy(col, row);
+        if (compact)
+            compactEnergyMatrix = new float[height][width];
+        else
+            energyMatrix = new double[height][width];
+        begin(CarverMetrics.Phase.ENERGY);
+        computeEnergies();
+        end();
+    }
+
+    // create a seam carver object that keeps pixels, energies and the edges of the seam DP
+    // off-heap, in a memory-mapped scratch file in the given directory. Finding and removing
+    // seams takes O(width + height) heap: the DP keeps two rows of distances instead of the
+    // tables, so every seam is a full (sequential) pass. Enlarging, the pyramid search and the
+    // seam history still take heap in proportion to the pixels involved
+    public SeamCarver(Picture picture, File scratchDirectory) {
+        if (picture == null || scratchDirectory == null)
+            throw new IllegalArgumentException("constructor argument is null");
+        if (METRICS_BY_DEFAULT)
+            metrics = new CarverMetrics();
+        int width = picture.width();
+        int height = picture.height();
+        transposed = true;
+        mapped = new MappedStorage(scratchDirectory, height, width);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                mapped.setRgb(row, col, picture.getRGB(col, row));
             }
         }
+        begin(CarverMetrics.Phase.ENERGY);
+        computeEnergies();
+        end();
+    }
+
+    // create a seam carver object from an image; int rgb and argb images are copied straight from
+    // their data buffer a row at a time, other types a row at a time through getRGB()
+    public SeamCarver(BufferedImage image) {
+        if (image == null)
+            throw new IllegalArgumentException("constructor argument is null");
+        int width = image.getWidth();
+        int height = image.getHeight();
+        hasAlpha = image.getColorModel().hasAlpha();
+        WritableRaster raster = image.getRaster();
+        int type = image.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            // a subimage shares the buffer of its parent, translated
+            int offset = buffer.getOffset() + model.getOffset(-raster.getSampleModelTranslateX(),
+                    -raster.getSampleModelTranslateY());
+            initRows(buffer.getData(), offset, model.getScanlineStride(), width, height);
+        } else {
+            int[] argb = new int[width * height];
+            for (int row = 0; row < height; row++)
+                image.getRGB(0, row, width, 1, argb, row * width, width);
+            initRows(argb, 0, width, width, height);
+        }
+    }
+
+    // create a seam carver object from packed argb pixels in row-major order
+    public SeamCarver(int[] argb, int width, int height) {
+        if (argb == null)
+            throw new IllegalArgumentException("constructor argument is null");
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("width and height must be at least 1");
+        if (argb.length < (long) width * height)
+            throw new IllegalArgumentException("fewer than width * height pixels");
+        hasAlpha = true;
+        initRows(argb, 0, width, width, height);
+    }
+
+    // carver for a picture whose rows are handed over in order with fillRows(), as they are decoded
+    SeamCarver(int width, int height, boolean hasAlpha) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("width and height must be at least 1");
+        this.hasAlpha = hasAlpha;
+        allocateRows(width, height);
+    }
+
+    // copy of another carver's pixels and energies, without its DP tables, running sequentially
+    SeamCarver(SeamCarver other) {
+        hasAlpha = other.hasAlpha;
+        transposed = other.transposed;
+        pyramidLevels = other.pyramidLevels;
+        pyramidBand = other.pyramidBand;
+        energyFunction = other.energyFunction;
+        searchBand = other.searchBand;
+        bandTolerance = other.bandTolerance;
+        if (other.mapped != null) {
+            mapped = other.mapped.copy();
+            return;
+        }
+        outerCount = other.outerCount;
+        innerCount = other.innerCount;
+        rgbMatrix = other.trim(other.rgbMatrix);
+        if (other.compactEnergyMatrix != null)
+            compactEnergyMatrix = other.trim(other.compactEnergyMatrix);
+        else
+            energyMatrix = other.trim(other.energyMatrix);
     }
 
     // current picture
@@ -33,131 +242,1115 @@ public class SeamCarver {
         Picture picture = new Picture(width(), height());
         for (int col = 0; col < width(); col++) {
             for (int row = 0; row < height(); row++) {
-                picture.setRGB(col, row, rgbMatrix[col][row]);
+                picture.setRGB(col, row, rgb(col, row));
             }
         }
         return picture;
     }
 
+    // current picture as packed argb pixels in row-major order
+    public int[] argb() {
+        int width = width();
+        int height = height();
+        int[] argb = new int[width * height];
+        int outer = outerSize();
+        int inner = innerSize();
+        if (mapped != null) {
+            int[] buffer = new int[inner];
+            for (int i = 0; i < outer; i++) {
+                mapped.readPixels(i, buffer);
+                if (transposed)
+                    System.arraycopy(buffer, 0, argb, i * width, inner);
+                else
+                    for (int j = 0; j < inner; j++)
+                        argb[j * width + i] = buffer[j];
+            }
+        } else if (transposed) {
+            // the outer arrays are the rows already
+            for (int row = 0; row < height; row++)
+                System.arraycopy(rgbMatrix[row], 0, argb, row * width, width);
+        } else {
+            // columns to rows in square tiles, so reads and writes both stay in cache
+            for (int col0 = 0; col0 < width; col0 += EXPORT_TILE) {
+                for (int row0 = 0; row0 < height; row0 += EXPORT_TILE) {
+                    int colEnd = Math.min(width, col0 + EXPORT_TILE);
+                    int rowEnd = Math.min(height, row0 + EXPORT_TILE);
+                    for (int col = col0; col < colEnd; col++) {
+                        int[] column = rgbMatrix[col];
+                        for (int row = row0; row < rowEnd; row++)
+                            argb[row * width + col] = column[row];
+                    }
+                }
+            }
+        }
+        return argb;
+    }
+
+    // current picture as an int rgb image, or int argb if the carver was built from pixels with
+    // alpha; the image wraps the array argb() returns, without another copy
+    public BufferedImage image() {
+        int width = width();
+        int height = height();
+        int[] argb = argb();
+        DirectColorModel model = hasAlpha
+                ? (DirectColorModel) ColorModel.getRGBdefault()
+                : new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(argb, argb.length),
+                width, height, width, model.getMasks(), null);
+        return new BufferedImage(model, raster, false, null);
+    }
+
+    // unmap the scratch file of a carver built with a scratch directory now rather than whenever
+    // it is garbage collected; the carver must not be used afterwards. Does nothing on the heap
+    public void close() {
+        if (mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
+    }
+
     // width of current picture
     public int width() {
-        return energyMatrix.length;
+        return transposed ? innerSize() : outerSize();
     }
 
     // height of current picture
     public int height() {
-        return energyMatrix[0].length;
+        return transposed ? outerSize() : innerSize();
     }
 
     // energy of pixel at column x and row y
     public double energy(int x, int y) {
         validatePixel(x, y);
-        if (atBorder(x, y))
-            return 1000.00;
-        return Math.sqrt(squareGradient(x - 1, y, x + 1, y) + squareGradient(x, y - 1, x, y + 1));
+        return transposed ? energyAt(y, x) : energyAt(x, y);
     }
 
     // sequence of indices for horizontal seam
     public int[] findHorizontalSeam() {
-        horizontalTranspose();
-        int[] seam = findSeam();
-        // reverse the
-        reverse(seam);
-        verticalTranspose();
-        return seam;
+        return findSeam(false);
     }
 
     // sequence of indices for vertical seam
     public int[] findVerticalSeam() {
-        return findSeam();
+        return findSeam(true);
     }
 
     // remove horizontal seam from current picture
     public void removeHorizontalSeam(int[] seam) {
-        validateSeam(seam, false);
-        this.rgbMatrix = removeHSeamHelper(seam, rgbMatrix);
-        this.energyMatrix = removeHSeamHelper(seam, energyMatrix);
-        updateEnergy(seam);
+        begin(CarverMetrics.Phase.VALIDATION);
+        try {
+            validateSeam(seam, false);
+        } finally {
+            end();
+        }
+        removeSeam(seam, false);
     }
 
     // remove vertical seam from current picture
     public void removeVerticalSeam(int[] seam) {
-        validateSeam(seam, true);
-        int[] transpose = horizontalTransposeSeam(seam);
-        horizontalTranspose();
-        removeHorizontalSeam(transpose);
-        verticalTranspose();
+        begin(CarverMetrics.Phase.VALIDATION);
+        try {
+            validateSeam(seam, true);
+        } finally {
+            end();
+        }
+        removeSeam(seam, true);
+    }
+
+    // remove k vertical seams as one job
+    public void removeVerticalSeams(int k) {
+        validateCount(k, width(), "removeVerticalSeams()");
+        carve(k, true, 0, k, null);
+    }
+
+    // remove k horizontal seams as one job
+    public void removeHorizontalSeams(int k) {
+        validateCount(k, height(), "removeHorizontalSeams()");
+        carve(k, false, 0, k, null);
+    }
+
+    // remove k vertical seams taking up to batch pixel-disjoint seams from every DP pass, batch 1
+    // is the exact greedy carve; returns the total energy of the removed seams, so the cost of a
+    // larger batch can be compared with the exact one
+    public double removeVerticalSeams(int k, int batch) {
+        validateCount(k, width(), "removeVerticalSeams()");
+        validateBatch(batch);
+        return carveBatched(k, true, batch);
+    }
+
+    // remove k horizontal seams taking up to batch pixel-disjoint seams from every DP pass
+    public double removeHorizontalSeams(int k, int batch) {
+        validateCount(k, height(), "removeHorizontalSeams()");
+        validateBatch(batch);
+        return carveBatched(k, false, batch);
+    }
+
+    // enlarge the picture by k columns: the k seams a carve would remove first are duplicated,
+    // every copy holding the average of the seam pixel and its right neighbor
+    public void insertVerticalSeams(int k) {
+        validateCount(k, width(), "insertVerticalSeams()");
+        insertSeams(k, true);
+    }
+
+    // enlarge the picture by k rows, duplicating the k seams a carve would remove first
+    public void insertHorizontalSeams(int k) {
+        validateCount(k, height(), "insertHorizontalSeams()");
+        insertSeams(k, false);
+    }
+
+    // resize the picture to width-by-height by removing vertical seams first, then horizontal ones
+    public void resizeTo(int width, int height) {
+        resizeTo(width, height, null);
+    }
+
+    // resize the picture to width-by-height by removing seams, reporting progress to the listener;
+    // returns false if the listener cancelled the job, the carver then holds the partial result
+    public boolean resizeTo(int width, int height, ResizeListener listener) {
+        if (width < 1 || width > width())
+            throw new IllegalArgumentException("resizeTo() is called with a width outside [1, " + width() + "]");
+        if (height < 1 || height > height())
+            throw new IllegalArgumentException("resizeTo() is called with a height outside [1, " + height() + "]");
+        int columns = width() - width;
+        int rows = height() - height;
+        int total = columns + rows;
+        // always columns first, then rows, so the result does not depend on how the pixels are
+        // stored; every constructor lays them out a row per outer array, so a fresh carver
+        // transposes at most once, before the rows
+        if (!carve(columns, true, 0, total, listener))
+            return false;
+        return carve(rows, false, columns, total, listener);
+    }
+
+    // resize the picture to width-by-height removing rows and columns in the order picked by the
+    // transport map DP over (rows removed, columns removed), an approximation of the best order:
+    // every cell keeps only the cheaper of its two predecessors' pictures, so an order through a
+    // dearer intermediate picture is never tried. Returns the total seam energy of the picked
+    // order. Only one anti-diagonal of intermediate carvers is alive at a time, its
+    // cells are evaluated on the pool set by setParallelism(), and the chosen order is then
+    // replayed on this carver
+    public double resizeToOptimal(int width, int height) {
+        if (width < 1 || width > width())
+            throw new IllegalArgumentException("resizeToOptimal() is called with a width outside [1, " + width() + "]");
+        if (height < 1 || height > height())
+            throw new IllegalArgumentException("resizeToOptimal() is called with a height outside [1, " + height() + "]");
+        final int rows = height() - height;
+        final int columns = width() - width;
+        // whether cell (r, c) was reached by removing a column, the only full-size table
+        boolean[][] byColumn = new boolean[rows + 1][columns + 1];
+        // frontier of diagonal d, indexed by rows removed: carver, cost so far and its next seams
+        final SeamCarver[] states = new SeamCarver[rows + 1];
+        final double[] cost = new double[rows + 1];
+        final int[][] rowSeams = new int[rows + 1][];
+        final int[][] columnSeams = new int[rows + 1][];
+        final double[] rowEnergy = new double[rows + 1];
+        final double[] columnEnergy = new double[rows + 1];
+        states[0] = new SeamCarver(this);
+        for (int d = 0; d < rows + columns; d++) {
+            final int diagonal = d;
+            final int lo = Math.max(0, d - columns);
+            final int hi = Math.min(d, rows);
+            // seams out of every cell of the frontier, each cell on its own
+            forEachCell(lo, hi, new Cell() {
+                public void run(int r) {
+                    SeamCarver state = states[r];
+                    if (r < rows) {
+                        rowSeams[r] = state.findSeam(false);
+                        rowEnergy[r] = state.seamEnergy(rowSeams[r], false);
+                    }
+                    if (diagonal - r < columns) {
+                        columnSeams[r] = state.findSeam(true);
+                        columnEnergy[r] = state.seamEnergy(columnSeams[r], true);
+                    }
+                    state.releaseTables();
+                }
+            });
+            // pick the cheaper predecessor of every cell of the next frontier, columns on ties
+            final int nextLo = Math.max(0, d + 1 - columns);
+            final int nextHi = Math.min(d + 1, rows);
+            final double[] nextCost = new double[rows + 1];
+            final boolean[] fromColumn = new boolean[rows + 1];
+            // a predecessor used twice is copied for its first successor and handed to the second
+            final boolean[] copy = new boolean[rows + 1];
+            boolean[] used = new boolean[rows + 1];
+            for (int r = nextLo; r <= nextHi; r++) {
+                boolean column = r <= hi && d - r < columns;
+                boolean row = r - 1 >= lo && r - 1 < rows;
+                fromColumn[r] = column && (!row || cost[r] + columnEnergy[r] <= cost[r - 1] + rowEnergy[r - 1]);
+                int from = fromColumn[r] ? r : r - 1;
+                nextCost[r] = fromColumn[r] ? cost[r] + columnEnergy[r] : cost[r - 1] + rowEnergy[r - 1];
+                byColumn[r][d + 1 - r] = fromColumn[r];
+                if (used[from])
+                    copy[r - 1] = true;
+                used[from] = true;
+            }
+            final SeamCarver[] next = new SeamCarver[rows + 1];
+            // copies first, so no state is copied while another cell removes a seam from it
+            forEachCell(nextLo, nextHi, new Cell() {
+                public void run(int r) {
+                    if (copy[r])
+                        next[r] = new SeamCarver(states[fromColumn[r] ? r : r - 1]);
+                }
+            });
+            forEachCell(nextLo, nextHi, new Cell() {
+                public void run(int r) {
+                    if (!copy[r])
+                        next[r] = states[fromColumn[r] ? r : r - 1];
+                    if (fromColumn[r])
+                        next[r].removeSeam(columnSeams[r], true);
+                    else
+                        next[r].removeSeam(rowSeams[r - 1], false);
+                }
+            });
+            // a predecessor no cell took over is done with
+            for (int r = lo; r <= hi; r++) {
+                if (!used[r])
+                    states[r].close();
+            }
+            System.arraycopy(next, 0, states, 0, rows + 1);
+            System.arraycopy(nextCost, 0, cost, 0, rows + 1);
+        }
+        states[rows].close();
+        // walk the order back from the corner, then carve this carver along it
+        boolean[] order = new boolean[rows + columns];
+        for (int r = rows, c = columns; r + c > 0; ) {
+            order[r + c - 1] = byColumn[r][c];
+            if (byColumn[r][c])
+                c--;
+            else
+                r--;
+        }
+        for (boolean column : order)
+            removeSeam(findSeam(column), column);
+        return cost[rows];
+    }
+
+    // one cell of a transport map frontier, indexed by rows removed
+    private interface Cell {
+        void run(int r);
+    }
+
+    // run cells lo..hi, on the pool when there is one
+    private void forEachCell(int lo, int hi, final Cell cell) {
+        if (pool == null || lo == hi) {
+            for (int r = lo; r <= hi; r++)
+                cell.run(r);
+            return;
+        }
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int r = lo; r <= hi; r++) {
+            final int index = r;
+            tasks.add(ForkJoinTask.adapt(new Runnable() {
+                public void run() {
+                    cell.run(index);
+                }
+            }));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    // drop the DP tables of a frontier carver, they are rebuilt on its next search anyway
+    private void releaseTables() {
+        distTo = null;
+        compactDistTo = null;
+        edgeTo = null;
+        line = null;
+        tablesValid = false;
+    }
+
+    // record every removed seam from now on, so it can be undone and redone, or stop recording;
+    // turning it on again starts an empty log. Off by default, a recorded seam keeps its pixels,
+    // 4 bytes per pixel, and its path, 2 bits per pixel
+    public void setHistory(boolean enabled) {
+        history = enabled ? new SeamLog(width(), height()) : null;
+        historyPixels = enabled ? new ArrayList<int[]>() : null;
+        historyApplied = 0;
+    }
+
+    // log of the seams removed since the history was turned on, null when it is off
+    public SeamLog history() {
+        return history == null ? null : history.copy(historyApplied);
+    }
+
+    // put back the seam removed last, without a seam search; false if there is none
+    public boolean undo() {
+        if (history == null || historyApplied == 0)
+            return false;
+        historyApplied--;
+        insertSeam(history.seam(historyApplied), history.isVertical(historyApplied), historyPixels.get(historyApplied));
+        return true;
+    }
+
+    // remove the seam put back last again, without a seam search; false if there is none. Removing
+    // any other seam drops the seams that could be redone
+    public boolean redo() {
+        if (history == null || historyApplied == history.size())
+            return false;
+        removeSeam(history.seam(historyApplied), history.isVertical(historyApplied));
+        return true;
+    }
+
+    // count time, allocations and work per phase from now on, or stop counting; turning metrics
+    // on again starts from zero. Off by default, where it costs one null check per phase
+    public void setMetrics(boolean enabled) {
+        metrics = enabled ? new CarverMetrics() : null;
+    }
+
+    // snapshot of the metrics counted so far, null when they are off
+    public CarverMetrics metrics() {
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    // energy function used from now on, the dual gradient by default; all energies are recomputed
+    public void setEnergyFunction(EnergyFunction energyFunction) {
+        if (energyFunction == null)
+            throw new IllegalArgumentException("argument is null");
+        this.energyFunction = energyFunction;
+        forgetSeams();
+        begin(CarverMetrics.Phase.ENERGY);
+        computeEnergies();
+        end();
+        tablesValid = false;
+    }
+
+    // energy function in use
+    public EnergyFunction energyFunction() {
+        return energyFunction;
+    }
+
+    // search every seam first within band positions either side of the seam removed last in the
+    // same direction, and on the whole picture only when the corridor seam's energy is more than
+    // (1 + tolerance) times that of the seam the last full search found. Seams that avoid the
+    // energies the removal changed cost no less than that, so a tolerance of 0 keeps the
+    // result close to the full search. Band 0 (the default) always searches the whole picture
+    public void setBandedSearch(int band, double tolerance) {
+        if (band < 0)
+            throw new IllegalArgumentException("band must not be negative");
+        if (tolerance < 0)
+            throw new IllegalArgumentException("tolerance must not be negative");
+        searchBand = band;
+        bandTolerance = tolerance;
+        forgetSeams();
+    }
+
+    // seams found within the corridor so far
+    public long bandedSeams() {
+        return bandedSeams;
+    }
+
+    // corridor searches whose seam was too costly, so the whole picture was searched
+    public long bandFallbacks() {
+        return bandFallbacks;
+    }
+
+    // number of threads used by the seam DP, 1 (the default) runs it sequentially; carvers with
+    // the same parallelism share one pool of daemon threads, so there is nothing to shut down
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        pool = parallelism == 1 ? null : sharedPool(parallelism);
+    }
+
+    // find seams coarse to fine: on energies averaged over 2x2 blocks levels times, then refined
+    // level by level within band positions either side of the coarser seam; 0 levels (the
+    // default) is the exact search
+    public void setPyramid(int levels, int band) {
+        if (levels < 0)
+            throw new IllegalArgumentException("levels must not be negative");
+        if (band < 1)
+            throw new IllegalArgumentException("band must be at least 1");
+        pyramidLevels = levels;
+        pyramidBand = band;
+        // the exact tables would only be kept up to date for nothing
+        tablesValid = false;
     }
 
     // helper functions
 
-    private int[] horizontalTransposeSeam(int[] seam) {
-        int width = width();
-        int[] transpose = new int[seam.length];
-        for (int i = 0; i < seam.length; i++) {
-            transpose[i] = width - seam[i] - 1;
+    private static ForkJoinPool sharedPool(int parallelism) {
+        synchronized (POOLS) {
+            ForkJoinPool shared = POOLS.get(parallelism);
+            if (shared == null) {
+                shared = new ForkJoinPool(parallelism);
+                POOLS.put(parallelism, shared);
+            }
+            return shared;
         }
-        return transpose;
     }
 
-    private void reverse(int[] arr) {
-        int len = arr.length;
-        for (int i = 0; i < len / 2; i++) {
-            int temp = arr[i];
-            arr[i] = arr[len - i - 1];
-            arr[len - i - 1] = temp;
+    // remove k seams of one direction without per-seam validation
+    private boolean carve(int k, boolean isVerticalSeam, int done, int total, ResizeListener listener) {
+        if (k == 0)
+            return true;
+        // a long phase is worth one transpose up front instead of a strided run first
+        if (k >= TRANSPOSE_RUN && !isAcross(isVerticalSeam)) {
+            transpose();
+            stridedRun = 0;
+        }
+        for (int i = 0; i < k; i++) {
+            removeSeam(findSeam(isVerticalSeam), isVerticalSeam);
+            if (listener != null && !listener.seamRemoved(done + i + 1, total))
+                return false;
         }
+        return true;
     }
 
-    // transpose SeamCarver to vertical
-    private void verticalTranspose() {
-        this.energyMatrix = toVertical(this.energyMatrix);
-        this.rgbMatrix = toVertical(this.rgbMatrix);
+    // remove k seams in batches of disjoint seams, returns their total energy
+    private double carveBatched(int k, boolean isVerticalSeam, int batch) {
+        double total = 0;
+        if (batch == 1) {
+            for (int i = 0; i < k; i++) {
+                int[] seam = findSeam(isVerticalSeam);
+                total += seamEnergy(seam, isVerticalSeam);
+                removeSeam(seam, isVerticalSeam);
+            }
+            return total;
+        }
+        // batches are removed across the storage only
+        if (!isAcross(isVerticalSeam))
+            transpose();
+        stridedRun = 0;
+        int removed = 0;
+        while (removed < k) {
+            int[][] seams = findDisjointSeams(isVerticalSeam, Math.min(batch, k - removed));
+            for (int[] seam : seams)
+                total += seamEnergy(seam, isVerticalSeam);
+            removeSeams(seams);
+            removed += seams.length;
+        }
+        return total;
     }
 
-    // transpose SeamCarver to horizontal
-    private void horizontalTranspose() {
-        this.energyMatrix = toHorizontal(this.energyMatrix);
-        this.rgbMatrix = toHorizontal(this.rgbMatrix);
+    // pick k seams on a working copy in batches of disjoint seams, then write the enlarged
+    // matrixes once with every picked pixel duplicated
+    private void insertSeams(int k, boolean isVerticalSeam) {
+        if (k == 0)
+            return;
+        // the corridor would follow a seam that no longer lines up with the pixels
+        forgetSeams();
+        // seams are inserted across the storage only
+        if (!isAcross(isVerticalSeam))
+            transpose();
+        stridedRun = 0;
+        int outer = outerSize();
+        int inner = innerSize();
+        SeamCarver work = new SeamCarver(this);
+        // position in this picture of every pixel left in the working copy
+        int[][] original = new int[outer][inner];
+        for (int i = 0; i < outer; i++) {
+            for (int j = 0; j < inner; j++)
+                original[i][j] = j;
+        }
+        int[][] picked = new int[outer][k];
+        int found = 0;
+        while (found < k) {
+            int[][] seams = work.findDisjointSeams(isVerticalSeam, k - found);
+            int n = seams.length;
+            for (int i = 0; i < outer; i++) {
+                int[] removed = new int[n];
+                for (int t = 0; t < n; t++) {
+                    picked[i][found + t] = original[i][seams[t][i]];
+                    removed[t] = seams[t][i];
+                }
+                Arrays.sort(removed);
+                removePositions(original[i], removed, inner - found);
+            }
+            work.removeSeams(seams);
+            found += n;
+        }
+        // let the working copy go before the enlarged matrixes are allocated
+        work.close();
+        work = null;
+        original = null;
+        for (int i = 0; i < outer; i++)
+            Arrays.sort(picked[i]);
+        if (mapped != null) {
+            MappedStorage old = mapped;
+            this.mapped = old.insertAcross(picked);
+            old.close();
+        } else {
+            int[][] res = new int[outer][inner + k];
+            for (int i = 0; i < outer; i++)
+                insertPositions(rgbMatrix[i], picked[i], inner, res[i]);
+            this.rgbMatrix = res;
+            this.innerCount = inner + k;
+            if (compactEnergyMatrix != null)
+                this.compactEnergyMatrix = new float[outer][inner + k];
+            else
+                this.energyMatrix = new double[outer][inner + k];
+        }
+        begin(CarverMetrics.Phase.ENERGY);
+        computeEnergies();
+        end();
+        tablesValid = false;
+        // the recorded seams no longer line up with the pixels
+        if (history != null)
+            setHistory(true);
     }
 
-    // update Energy matrix alone the seam (treat the seam as horizontal seam)
-    private void updateEnergy(int[] seam) {
-        for (int col = 0; col < width(); col++) {
-            int seamPos = seam[col];
-            if (seamPos < height()) {
-                energyMatrix[col][seamPos] = energy(col, seamPos);
+    // copy the first inner pixels of src into dst, each sorted position followed by its average
+    // with the next pixel (or by itself at the end)
+    static void insertPositions(int[] src, int[] sorted, int inner, int[] dst) {
+        int read = 0;
+        int write = 0;
+        for (int pos : sorted) {
+            System.arraycopy(src, read, dst, write, pos + 1 - read);
+            write += pos + 1 - read;
+            read = pos + 1;
+            dst[write++] = average(src[pos], src[Math.min(pos + 1, inner - 1)]);
+        }
+        System.arraycopy(src, read, dst, write, inner - read);
+    }
+
+    // channel-wise average of two packed pixels, keeping the alpha of the first
+    private static int average(int rgb1, int rgb2) {
+        int r = (((rgb1 >> 16) & 0XFF) + ((rgb2 >> 16) & 0XFF)) / 2;
+        int g = (((rgb1 >> 8) & 0XFF) + ((rgb2 >> 8) & 0XFF)) / 2;
+        int b = ((rgb1 & 0XFF) + (rgb2 & 0XFF)) / 2;
+        return (rgb1 & 0XFF000000) | (r << 16) | (g << 8) | b;
+    }
+
+    private double seamEnergy(int[] seam, boolean isVerticalSeam) {
+        double total = 0;
+        for (int i = 0; i < seam.length; i++)
+            total += isVerticalSeam ? energy(seam[i], i) : energy(i, seam[i]);
+        return total;
+    }
+
+    private void validateBatch(int batch) {
+        if (batch < 1)
+            throw new IllegalArgumentException("batch must be at least 1");
+    }
+
+    private void validateCount(int k, int size, String method) {
+        if (k < 0 || k >= size)
+            throw new IllegalArgumentException(method + " is called with a count outside [0, " + (size - 1) + "]");
+    }
+
+    // make sure the DP tables hold at least steps-by-positions entries
+    private void ensureTables(int steps, int positions) {
+        if (edgeTo == null || edgeTo.length < steps || edgeTo[0].length < positions) {
+            // grow to cover both orientations so alternating directions do not reallocate
+            if (edgeTo != null) {
+                steps = Math.max(steps, edgeTo.length);
+                positions = Math.max(positions, edgeTo[0].length);
+            }
+            if (compactEnergyMatrix != null) {
+                compactDistTo = new float[steps][positions];
+            } else {
+                distTo = new double[steps][positions];
+                line = new double[positions];
             }
-            if (seamPos - 1 >= 0) {
-                energyMatrix[col][seamPos - 1] = energy(col, seamPos - 1);
+            edgeTo = new byte[steps][positions];
+        }
+    }
+
+    // a seam runs across the storage when it has one entry per outer array,
+    // otherwise it runs along the outer index and every access is strided
+    private boolean isAcross(boolean isVerticalSeam) {
+        return isVerticalSeam == transposed;
+    }
+
+    // count strided operations and transpose once a long run of them makes it pay off
+    private boolean orient(boolean isVerticalSeam) {
+        if (isAcross(isVerticalSeam)) {
+            stridedRun = 0;
+            return true;
+        }
+        if (++stridedRun >= TRANSPOSE_RUN) {
+            transpose();
+            stridedRun = 0;
+            return true;
+        }
+        return false;
+    }
+
+    // physically transpose both matrixes and flip the orientation flag
+    private void transpose() {
+        begin(CarverMetrics.Phase.TRANSPOSE);
+        if (metrics != null)
+            metrics.transposed();
+        if (mapped != null) {
+            MappedStorage old = mapped;
+            this.mapped = old.transpose();
+            old.close();
+        } else {
+            if (compactEnergyMatrix != null)
+                this.compactEnergyMatrix = diagonal(this.compactEnergyMatrix);
+            else
+                this.energyMatrix = diagonal(this.energyMatrix);
+            this.rgbMatrix = diagonal(this.rgbMatrix);
+            // the transposed copies have no slack
+            int count = outerCount;
+            this.outerCount = innerCount;
+            this.innerCount = count;
+        }
+        this.transposed = !transposed;
+        end();
+    }
+
+    private void removeSeam(int[] seam, boolean isVerticalSeam) {
+        begin(CarverMetrics.Phase.REMOVAL);
+        if (history != null) {
+            int[] pixels = new int[seam.length];
+            for (int i = 0; i < seam.length; i++)
+                pixels[i] = isVerticalSeam ? rgb(seam[i], i) : rgb(i, seam[i]);
+            record(seam, isVerticalSeam, pixels);
+        }
+        if (searchBand > 0) {
+            if (isVerticalSeam)
+                lastVerticalSeam = seam.clone();
+            else
+                lastHorizontalSeam = seam.clone();
+        }
+        if (orient(isVerticalSeam)) {
+            if (mapped != null) {
+                mapped.removeAcross(seam);
+            } else {
+                removeHSeamHelper(seam, rgbMatrix);
+                if (compactEnergyMatrix != null)
+                    removeHSeamHelper(seam, compactEnergyMatrix);
+                else
+                    removeHSeamHelper(seam, energyMatrix);
+                innerCount--;
+                trimIfSparse();
+            }
+            end();
+            begin(CarverMetrics.Phase.ENERGY);
+            updateEnergy(seam);
+        } else {
+            if (mapped != null) {
+                mapped.removeAlong(seam);
+            } else {
+                removeAlongHelper(seam, rgbMatrix);
+                if (compactEnergyMatrix != null)
+                    removeAlongHelper(seam, compactEnergyMatrix);
+                else
+                    removeAlongHelper(seam, energyMatrix);
+                outerCount--;
+                trimIfSparse();
+            }
+            end();
+            begin(CarverMetrics.Phase.ENERGY);
+            updateEnergyAlong(seam);
+        }
+        end();
+        begin(CarverMetrics.Phase.SEAM_SEARCH);
+        updateTables(seam, isVerticalSeam);
+        end();
+    }
+
+    // take over row-major pixels, stored transposed so every row is one outer array
+    private void initRows(int[] argb, int offset, int stride, int width, int height) {
+        allocateRows(width, height);
+        fillRows(argb, offset, stride, 0, height);
+    }
+
+    private void allocateRows(int width, int height) {
+        if (METRICS_BY_DEFAULT)
+            metrics = new CarverMetrics();
+        transposed = true;
+        outerCount = height;
+        innerCount = width;
+        rgbMatrix = new int[height][];
+        energyMatrix = new double[height][width];
+    }
+
+    // take over rows from (inclusive) to to (exclusive), row from starting at argb[offset] and every
+    // next one stride entries later, then compute the energies of the rows whose stencil is complete.
+    // The rows of a carver built with SeamCarver(width, height, hasAlpha) must come in order, and
+    // it must not be used before its last row is in
+    void fillRows(int[] argb, int offset, int stride, int from, int to) {
+        int width = innerCount;
+        int height = outerCount;
+        for (int row = from; row < to; row++) {
+            int start = offset + (row - from) * stride;
+            if (hasAlpha) {
+                rgbMatrix[row] = Arrays.copyOfRange(argb, start, start + width);
+            } else {
+                // int rgb rasters leave the alpha byte 0, the pixels are opaque
+                int[] pixels = new int[width];
+                for (int col = 0; col < width; col++)
+                    pixels[col] = argb[start + col] | 0xFF000000;
+                rgbMatrix[row] = pixels;
+            }
+        }
+        int r = energyFunction.radius();
+        begin(CarverMetrics.Phase.ENERGY);
+        // the rows before these were waiting for the first ones of this call
+        for (int row = Math.max(0, from - r), end = to == height ? height : to - r; row < end; row++) {
+            if (row < r || row >= height - r)
+                Arrays.fill(energyMatrix[row], 0, width, BORDER_ENERGY);
+            else
+                energyFunction.fill(rgbMatrix, row, width, energyMatrix[row], 0, width);
+        }
+        end();
+    }
+
+    // log a removed seam and its pixels, dropping the seams that could be redone unless it is the
+    // next one of them
+    private void record(int[] seam, boolean isVerticalSeam, int[] pixels) {
+        if (historyApplied < history.size() && history.isVertical(historyApplied) == isVerticalSeam
+                && Arrays.equals(history.seam(historyApplied), seam)) {
+            historyPixels.set(historyApplied++, pixels);
+            return;
+        }
+        history.truncate(historyApplied);
+        historyPixels.subList(historyApplied, historyPixels.size()).clear();
+        history.add(seam, isVerticalSeam);
+        historyPixels.add(pixels);
+        historyApplied++;
+    }
+
+    // take over a log replayed onto the picture this carver was built from and the pixels it removed
+    void restoreHistory(SeamLog log, List<int[]> pixels) {
+        history = log;
+        historyPixels = new ArrayList<int[]>(pixels);
+        historyApplied = log.size();
+    }
+
+    // put a seam of pixels back where it was removed; strided like a removal, except in the mapped
+    // storage, whose number of outer arrays is fixed
+    private void insertSeam(int[] seam, boolean isVerticalSeam, int[] pixels) {
+        boolean across = orient(isVerticalSeam);
+        if (!across && mapped != null) {
+            transpose();
+            stridedRun = 0;
+            across = true;
+        }
+        begin(CarverMetrics.Phase.REMOVAL);
+        if (across) {
+            if (mapped != null) {
+                MappedStorage grown = mapped.insertAcross(seam, pixels);
+                if (grown != mapped)
+                    mapped.close();
+                mapped = grown;
+            } else {
+                if (innerCount == rgbMatrix[0].length)
+                    growInner();
+                for (int i = 0; i < outerCount; i++) {
+                    insertAt(rgbMatrix[i], seam[i], innerCount, pixels[i]);
+                    if (compactEnergyMatrix != null)
+                        insertAt(compactEnergyMatrix[i], seam[i], innerCount);
+                    else
+                        insertAt(energyMatrix[i], seam[i], innerCount);
+                }
+                innerCount++;
+            }
+            end();
+            begin(CarverMetrics.Phase.ENERGY);
+            int outer = outerSize();
+            int inner = innerSize();
+            int r = energyFunction.radius();
+            // the band a removal changes, and the new pixel at its far end
+            for (int i = r; i < outer - r; i++)
+                refreshEnergies(i, bandLo(seam, i), Math.min(inner, bandHi(seam, i, inner) + 2));
+        } else {
+            if (outerCount == rgbMatrix.length)
+                growOuter();
+            insertAlongHelper(seam, rgbMatrix, pixels);
+            if (compactEnergyMatrix != null)
+                insertAlongHelper(seam, compactEnergyMatrix);
+            else
+                insertAlongHelper(seam, energyMatrix);
+            outerCount++;
+            end();
+            begin(CarverMetrics.Phase.ENERGY);
+            int outer = outerSize();
+            for (int j = 0; j < innerCount; j++) {
+                for (int i = bandLo(seam, j), hi = Math.min(outer - 1, bandHi(seam, j, outer) + 1); i <= hi; i++)
+                    setEnergyAt(i, j, energyFunction.energy(storage, i, j));
+            }
+        }
+        end();
+        tablesValid = false;
+        forgetSeams();
+    }
+
+    // room for half as many more outer arrays
+    private void growOuter() {
+        int capacity = outerCount + outerCount / 2 + 1;
+        int length = rgbMatrix[0].length;
+        rgbMatrix = Arrays.copyOf(rgbMatrix, capacity);
+        if (compactEnergyMatrix != null)
+            compactEnergyMatrix = Arrays.copyOf(compactEnergyMatrix, capacity);
+        else
+            energyMatrix = Arrays.copyOf(energyMatrix, capacity);
+        for (int i = outerCount; i < capacity; i++) {
+            rgbMatrix[i] = new int[length];
+            if (compactEnergyMatrix != null)
+                compactEnergyMatrix[i] = new float[length];
+            else
+                energyMatrix[i] = new double[length];
+        }
+    }
+
+    // room for half as many more inner positions in every outer array in use
+    private void growInner() {
+        int capacity = innerCount + innerCount / 2 + 1;
+        // the slack outer arrays too, a strided insertion takes them into use
+        for (int i = 0; i < rgbMatrix.length; i++) {
+            rgbMatrix[i] = Arrays.copyOf(rgbMatrix[i], capacity);
+            if (compactEnergyMatrix != null)
+                compactEnergyMatrix[i] = Arrays.copyOf(compactEnergyMatrix[i], capacity);
+            else
+                energyMatrix[i] = Arrays.copyOf(energyMatrix[i], capacity);
+        }
+    }
+
+    // shift the first inner entries from pos on one up and put value at pos
+    private static void insertAt(int[] row, int pos, int inner, int value) {
+        System.arraycopy(row, pos, row, pos + 1, inner - pos);
+        row[pos] = value;
+    }
+
+    // same for energies, the one at pos is recomputed by the caller
+    private static void insertAt(double[] row, int pos, int inner) {
+        System.arraycopy(row, pos, row, pos + 1, inner - pos);
+    }
+
+    private static void insertAt(float[] row, int pos, int inner) {
+        System.arraycopy(row, pos, row, pos + 1, inner - pos);
+    }
+
+    // shift the entries of every inner position from seam[j] on one outer array up, and put
+    // values[j] at seam[j]
+    private void insertAlongHelper(int[] seam, int[][] matrix, int[] values) {
+        for (int j = 0; j < innerCount; j++) {
+            for (int i = outerCount; i > seam[j]; i--)
+                matrix[i][j] = matrix[i - 1][j];
+            matrix[seam[j]][j] = values[j];
+        }
+    }
+
+    private void insertAlongHelper(int[] seam, double[][] matrix) {
+        for (int j = 0; j < innerCount; j++) {
+            for (int i = outerCount; i > seam[j]; i--)
+                matrix[i][j] = matrix[i - 1][j];
+        }
+    }
+
+    private void insertAlongHelper(int[] seam, float[][] matrix) {
+        for (int j = 0; j < innerCount; j++) {
+            for (int i = outerCount; i > seam[j]; i--)
+                matrix[i][j] = matrix[i - 1][j];
+        }
+    }
+
+    // start charging time and allocations to a phase when metrics are on
+    private void begin(CarverMetrics.Phase phase) {
+        if (metrics != null)
+            metrics.begin(phase);
+    }
+
+    // stop charging to the phase begun last
+    private void end() {
+        if (metrics != null)
+            metrics.end();
+    }
+
+    // update Energy matrix alone the seam (treat the seam as horizontal seam): in every outer
+    // array the band of positions whose stencil reaches over the seam
+    private void updateEnergy(int[] seam) {
+        int outer = outerSize();
+        int inner = innerSize();
+        int r = energyFunction.radius();
+        // outer arrays within the radius of the ends are border energies and stay so
+        for (int i = r; i < outer - r; i++)
+            refreshEnergies(i, bandLo(seam, i), bandHi(seam, i, inner) + 1);
+    }
+
+    // update Energy matrix alone a seam that ran along the outer index
+    private void updateEnergyAlong(int[] seam) {
+        int outer = outerSize();
+        int inner = innerSize();
+        for (int j = 0; j < inner; j++) {
+            for (int i = bandLo(seam, j), hi = bandHi(seam, j, outer); i <= hi; i++)
+                setEnergyAt(i, j, energyFunction.energy(storage, i, j));
+        }
+    }
+
+    // first position of step i whose energy changes when the seam is removed: the stencil reaches
+    // radius positions before the seam, and with a square stencil also the seam of radius steps around
+    private int bandLo(int[] seam, int i) {
+        int r = energyFunction.radius();
+        int reach = energyFunction.square() ? r : 0;
+        int lo = seam[i];
+        for (int k = Math.max(0, i - reach); k <= Math.min(seam.length - 1, i + reach); k++)
+            lo = Math.min(lo, seam[k]);
+        return Math.max(0, lo - r);
+    }
+
+    // last position of step i whose energy changes, of positions in all
+    private int bandHi(int[] seam, int i, int positions) {
+        int r = energyFunction.radius();
+        int reach = energyFunction.square() ? r : 0;
+        int hi = seam[i];
+        for (int k = Math.max(0, i - reach); k <= Math.min(seam.length - 1, i + reach); k++)
+            hi = Math.max(hi, seam[k]);
+        return Math.min(positions - 1, hi + r - 1);
+    }
+
+    // recompute the energies of positions from (inclusive) to to (exclusive) of an interior outer array
+    private void refreshEnergies(int i, int from, int to) {
+        if (from >= to)
+            return;
+        int inner = innerSize();
+        if (mapped != null) {
+            for (int j = from; j < to; j++)
+                mapped.setEnergy(i, j, energyFunction.energy(storage, i, j));
+        } else if (compactEnergyMatrix != null) {
+            energyFunction.fill(rgbMatrix, i, inner, compactEnergyMatrix[i], from, to);
+        } else {
+            energyFunction.fill(rgbMatrix, i, inner, energyMatrix[i], from, to);
+        }
+    }
+
+    // fill the whole energy matrix, one contiguous outer array at a time
+    private void computeEnergies() {
+        int outer = outerSize();
+        int inner = innerSize();
+        if (mapped != null) {
+            computeMappedEnergies(outer, inner);
+            return;
+        }
+        int r = energyFunction.radius();
+        if (compactEnergyMatrix != null) {
+            for (int i = 0; i < outer; i++) {
+                if (i < r || i >= outer - r)
+                    Arrays.fill(compactEnergyMatrix[i], 0, inner, (float) BORDER_ENERGY);
+                else
+                    energyFunction.fill(rgbMatrix, i, inner, compactEnergyMatrix[i], 0, inner);
             }
+            return;
+        }
+        for (int i = 0; i < outer; i++) {
+            if (i < r || i >= outer - r)
+                Arrays.fill(energyMatrix[i], 0, inner, BORDER_ENERGY);
+            else
+                energyFunction.fill(rgbMatrix, i, inner, energyMatrix[i], 0, inner);
+        }
+    }
+
+    // same as computeEnergies(), streaming the outer arrays of pixels the stencil reads through
+    // a window of heap buffers
+    private void computeMappedEnergies(int outer, int inner) {
+        int r = energyFunction.radius();
+        int[][] window = new int[2 * r + 1][inner];
+        double[] out = new double[inner];
+        Arrays.fill(out, BORDER_ENERGY);
+        for (int i = 0; i < Math.min(r, outer); i++) {
+            mapped.writeEnergies(i, out);
+            mapped.writeEnergies(outer - 1 - i, out);
+        }
+        if (outer < 2 * r + 1)
+            return;
+        for (int k = 0; k < 2 * r; k++)
+            mapped.readPixels(k, window[k + 1]);
+        for (int i = r; i < outer - r; i++) {
+            // shift the window by one outer array and read the new last one
+            int[] temp = window[0];
+            System.arraycopy(window, 1, window, 0, 2 * r);
+            window[2 * r] = temp;
+            mapped.readPixels(i + r, temp);
+            energyFunction.fill(window, r, inner, out, 0, inner);
+            mapped.writeEnergies(i, out);
         }
     }
 
-    // remove (default) horizontal seam helper
-    private int[][] removeHSeamHelper(int[] seam, int[][] matrix) {
-        int width = matrix.length;
-        int height = matrix[0].length;
-        int[][] res = new int[width][height - 1];
+    // remove (default) horizontal seam helper, in place: every outer array keeps its
+    // capacity and the removed pixel becomes slack at its end
+    private void removeHSeamHelper(int[] seam, int[][] matrix) {
+        int width = outerCount;
+        int height = innerCount;
         for (int col = 0; col < width; col++) {
-            // copy first part before seam
-            System.arraycopy(matrix[col], 0, res[col], 0, seam[col]);
-            // copy second part after seam
-            System.arraycopy(matrix[col], seam[col] + 1, res[col], seam[col], height - seam[col] - 1);
+            // move second part after seam over it, the first part stays where it is
+            System.arraycopy(matrix[col], seam[col] + 1, matrix[col], seam[col], height - seam[col] - 1);
+        }
+    }
+
+    private void removeHSeamHelper(int[] seam, double[][] matrix) {
+        int width = outerCount;
+        int height = innerCount;
+        for (int col = 0; col < width; col++) {
+            // move second part after seam over it, the first part stays where it is
+            System.arraycopy(matrix[col], seam[col] + 1, matrix[col], seam[col], height - seam[col] - 1);
         }
-        return res;
     }
 
-    private double[][] removeHSeamHelper(int[] seam, double[][] matrix) {
-        int width = matrix.length;
-        int height = matrix[0].length;
-        double[][] res = new double[width][height - 1];
+    private void removeHSeamHelper(int[] seam, float[][] matrix) {
+        int width = outerCount;
+        int height = innerCount;
         for (int col = 0; col < width; col++) {
-            // copy first part before seam
-            System.arraycopy(matrix[col], 0, res[col], 0, seam[col]);
-            // copy second part after seam
-            System.arraycopy(matrix[col], seam[col] + 1, res[col], seam[col], height - seam[col] - 1);
+            // move second part after seam over it, the first part stays where it is
+            System.arraycopy(matrix[col], seam[col] + 1, matrix[col], seam[col], height - seam[col] - 1);
+        }
+    }
+
+    // remove a seam running along the outer index in place, the last outer array becomes slack
+    private void removeAlongHelper(int[] seam, int[][] matrix) {
+        int outer = outerCount;
+        int inner = innerCount;
+        for (int j = 0; j < inner; j++) {
+            for (int i = seam[j]; i < outer - 1; i++) {
+                matrix[i][j] = matrix[i + 1][j];
+            }
         }
+    }
+
+    private void removeAlongHelper(int[] seam, double[][] matrix) {
+        int outer = outerCount;
+        int inner = innerCount;
+        for (int j = 0; j < inner; j++) {
+            for (int i = seam[j]; i < outer - 1; i++) {
+                matrix[i][j] = matrix[i + 1][j];
+            }
+        }
+    }
+
+    private void removeAlongHelper(int[] seam, float[][] matrix) {
+        int outer = outerCount;
+        int inner = innerCount;
+        for (int j = 0; j < inner; j++) {
+            for (int i = seam[j]; i < outer - 1; i++) {
+                matrix[i][j] = matrix[i + 1][j];
+            }
+        }
+    }
+
+    // release the slack once it is more than half of the capacity in either direction
+    private void trimIfSparse() {
+        if (outerCount * 2 >= rgbMatrix.length && innerCount * 2 >= rgbMatrix[0].length)
+            return;
+        this.rgbMatrix = trim(rgbMatrix);
+        if (compactEnergyMatrix != null)
+            this.compactEnergyMatrix = trim(compactEnergyMatrix);
+        else
+            this.energyMatrix = trim(energyMatrix);
+    }
+
+    private int[][] trim(int[][] matrix) {
+        int[][] res = new int[outerCount][];
+        for (int i = 0; i < outerCount; i++)
+            res[i] = Arrays.copyOf(matrix[i], innerCount);
+        return res;
+    }
+
+    private double[][] trim(double[][] matrix) {
+        double[][] res = new double[outerCount][];
+        for (int i = 0; i < outerCount; i++)
+            res[i] = Arrays.copyOf(matrix[i], innerCount);
+        return res;
+    }
+
+    private float[][] trim(float[][] matrix) {
+        float[][] res = new float[outerCount][];
+        for (int i = 0; i < outerCount; i++)
+            res[i] = Arrays.copyOf(matrix[i], innerCount);
         return res;
     }
 
@@ -197,165 +1390,666 @@ public class SeamCarver {
         }
     }
 
-    // find vertical seam regardless of picture orientation
-    private int[] findSeam() {
-        int width = width();
-        int height = height();
-        double[][] distTo = new double[width][height];
-        int[][] edgeTo = new int[width][height];
-        // initialize above matrixes
-        for (int col = 0; col < width; col++) {
-            for (int row = 0; row < height; row++) {
-
-                if (row == 0) {
-                    // first line, sources
-                    distTo[col][row] = energyMatrix[col][row];
-                } else {
-                    distTo[col][row] = Double.POSITIVE_INFINITY;
-                }
-
-                edgeTo[col][row] = -1;
+    // find a seam in seam order: one position per step, steps are rows for a vertical seam
+    private int[] findSeam(boolean isVerticalSeam) {
+        begin(CarverMetrics.Phase.SEAM_SEARCH);
+        int[] seam = null;
+        // valid tables make the full search an incremental one already, cheaper than any corridor
+        boolean tablesReady = tablesValid && tablesVertical == isVerticalSeam && pyramidLevels == 0;
+        int[] guide = isVerticalSeam ? lastVerticalSeam : lastHorizontalSeam;
+        if (searchBand > 0 && guide != null && !tablesReady)
+            seam = bandedSeam(isVerticalSeam, guide);
+        if (seam == null) {
+            seam = searchSeam(isVerticalSeam);
+            if (searchBand > 0) {
+                if (isVerticalSeam)
+                    lastFullCostVertical = seamEnergy(seam, true);
+                else
+                    lastFullCostHorizontal = seamEnergy(seam, false);
             }
         }
+        end();
+        return seam;
+    }
 
-        // topological order
-        for (int y = 0; y < height - 1; y++) {
-            for (int x = 0; x < width; x++) {
-                // relax each edge (x, y)
-                for (int i = -1; i <= 1; i++) {
-                    if (x + i < 0 || x + i >= width)
-                        continue;
-                    else if (distTo[x + i][y + 1] > distTo[x][y] + energyMatrix[x + i][y + 1]) {
-                        // update
-                        distTo[x + i][y + 1] = distTo[x][y] + energyMatrix[x + i][y + 1];
-                        edgeTo[x + i][y + 1] = x;
-                    }
-                }
+    // seam within the corridor around the last removed one of the direction, null if it costs too much
+    private int[] bandedSeam(boolean isVerticalSeam, int[] guide) {
+        // seams removed in the other direction since then shortened this one, and dropping its
+        // last steps keeps it connected
+        int steps = isVerticalSeam ? height() : width();
+        if (guide.length != steps)
+            guide = Arrays.copyOf(guide, steps);
+        int[] seam = nearSeam(isVerticalSeam, guide, searchBand);
+        double bound = isVerticalSeam ? lastFullCostVertical : lastFullCostHorizontal;
+        if (seamEnergy(seam, isVerticalSeam) > bound * (1 + bandTolerance)) {
+            bandFallbacks++;
+            return null;
+        }
+        bandedSeams++;
+        return seam;
+    }
+
+    // drop the seams the corridors follow, after changes that move pixels across them
+    private void forgetSeams() {
+        lastVerticalSeam = null;
+        lastHorizontalSeam = null;
+    }
+
+    private int[] searchSeam(boolean isVerticalSeam) {
+        boolean across = orient(isVerticalSeam);
+        int steps = isVerticalSeam ? height() : width();
+        int positions = isVerticalSeam ? width() : height();
+        if (pyramidLevels > 0)
+            return findPyramidSeam(steps, positions, across);
+        if (mapped != null) {
+            double[] last = relaxRolling(steps, positions, across);
+            int end = 0;
+            for (int j = 1; j < positions; j++) {
+                if (last[j] < last[end])
+                    end = j;
             }
+            int[] res = new int[steps];
+            res[steps - 1] = end;
+            for (int i = steps - 2; i >= 0; i--)
+                res[i] = res[i + 1] + mapped.edge((long) (i + 1) * positions + res[i + 1]);
+            return res;
         }
+        buildTables(isVerticalSeam, steps, positions, across);
 
         // find seam endpoint
         int end = 0;
-        for (int x = 1; x < width; x++) {
-            if (distTo[x][height - 1] < distTo[end][height - 1]) {
-                end = x;
+        if (compactDistTo != null) {
+            float[] last = compactDistTo[steps - 1];
+            for (int j = 1; j < positions; j++) {
+                if (last[j] < last[end]) {
+                    end = j;
+                }
+            }
+        } else {
+            double[] last = distTo[steps - 1];
+            for (int j = 1; j < positions; j++) {
+                if (last[j] < last[end]) {
+                    end = j;
+                }
             }
         }
 
         // build return array
-        int[] res = new int[height];
-        res[height - 1] = end;
-        for (int i = height - 2; i >= 0; i--) {
-            res[i] = edgeTo[end][i + 1];
-            end = res[i];
+        int[] res = new int[steps];
+        res[steps - 1] = end;
+        for (int i = steps - 2; i >= 0; i--) {
+            res[i] = res[i + 1] + edgeTo[i + 1][res[i + 1]];
         }
-
         return res;
     }
 
-    // horizontal transpose
-    private int[][] toHorizontal(int[][] arr) {
-        // phase 2: diagonal exchange
-        int[][] diagonal = diagonal(arr);
-
-        // phase 1: up and down exchange
-        int[][] upDown = upDown(diagonal);
-
-        return upDown;
+    // coarse-to-fine seam: a full DP on the coarsest grid, then a DP restricted to a band
+    // around the upsampled seam on every finer level down to the stored energies
+    private int[] findPyramidSeam(int steps, int positions, boolean across) {
+        // sizes of every level, level 0 is the storage
+        List<int[]> sizes = new ArrayList<int[]>();
+        sizes.add(new int[] { steps, positions });
+        for (int l = 1; l <= pyramidLevels && steps > 1 && positions > 1; l++) {
+            downsample(l, steps, positions, across);
+            steps = (steps + 1) / 2;
+            positions = (positions + 1) / 2;
+            sizes.add(new int[] { steps, positions });
+        }
+        int coarsest = sizes.size() - 1;
+        int[] seam = refine(coarsest, null, sizes.get(coarsest), 0, across);
+        for (int l = coarsest - 1; l >= 0; l--)
+            seam = refine(l, seam, sizes.get(l), pyramidBand, across);
+        return seam;
     }
 
-    private double[][] toHorizontal(double[][] arr) {
-        // phase 2: diagonal exchange
-        double[][] diagonal = diagonal(arr);
-
-        // phase 1: up and down exchange
-        double[][] upDown = upDown(diagonal);
+    // fill the grid of level l from the finer steps-by-positions level below it, each cell the
+    // average of the 2x2 cells it covers; at an odd edge the last finer cell counts twice
+    private void downsample(int l, int finerSteps, int finerPositions, boolean across) {
+        int steps = (finerSteps + 1) / 2;
+        int positions = (finerPositions + 1) / 2;
+        if (pyramid.size() < l)
+            pyramid.add(null);
+        double[][] grid = pyramid.get(l - 1);
+        if (grid == null || grid.length < steps || grid[0].length < positions) {
+            // grow to cover both orientations, like the DP tables
+            if (grid != null) {
+                grid = new double[Math.max(steps, grid.length)][Math.max(positions, grid[0].length)];
+            } else {
+                grid = new double[steps][positions];
+            }
+            pyramid.set(l - 1, grid);
+        }
+        if (l == 1 && (pyramidLines == null || pyramidLines[0].length < finerPositions))
+            pyramidLines = new double[2][finerPositions];
+        for (int i = 0; i < steps; i++) {
+            // the two finer steps, rows of the level below or energy lines of the storage
+            double[] first = l == 1 ? energyLine(2 * i, 0, finerPositions - 1, across, pyramidLines[0])
+                    : pyramid.get(l - 2)[2 * i];
+            double[] second = first;
+            if (2 * i + 1 < finerSteps) {
+                second = l == 1 ? energyLine(2 * i + 1, 0, finerPositions - 1, across, pyramidLines[1])
+                        : pyramid.get(l - 2)[2 * i + 1];
+            }
+            double[] cell = grid[i];
+            for (int j = 0; j < positions; j++) {
+                int fj = Math.min(2 * j + 1, finerPositions - 1);
+                cell[j] = (first[2 * j] + first[fj] + second[2 * j] + second[fj]) / 4;
+            }
+        }
+    }
 
-        return upDown;
+    // energy of a cell of level l in seam order
+    private double levelEnergy(int l, int i, int j, boolean across) {
+        if (l > 0)
+            return pyramid.get(l - 1)[i][j];
+        return across ? energyAt(i, j) : energyAt(j, i);
     }
 
-    // vertical transpose
-    private int[][] toVertical(int[][] arr) {
-        // phase 1: diagonal exchange
-        int[][] diagonal = diagonal(arr);
+    // DP on level l restricted, for every step, to band positions either side of the upsampled
+    // coarser seam (the whole level when there is none); ties prefer the lowest position
+    private int[] refine(int l, int[] coarse, int[] size, int band, boolean across) {
+        int steps = size[0];
+        int positions = size[1];
+        int[] lo = new int[steps];
+        int[] hi = new int[steps];
+        for (int i = 0; i < steps; i++) {
+            if (coarse == null) {
+                lo[i] = 0;
+                hi[i] = positions - 1;
+            } else {
+                int center = 2 * coarse[i / 2];
+                lo[i] = Math.max(0, center - band);
+                hi[i] = Math.min(positions - 1, center + 1 + band);
+            }
+        }
+        return corridorSeam(l, lo, hi, across);
+    }
 
-        // phase 1: left and right exchange
-        int[][] leftRight = leftRight(diagonal);
+    // seam of the current picture within band positions either side of a guide seam of the
+    // same size, such as the seam removed at the same point of the previous frame
+    int[] findSeamNear(boolean isVerticalSeam, int[] guide, int band) {
+        begin(CarverMetrics.Phase.SEAM_SEARCH);
+        int[] seam = nearSeam(isVerticalSeam, guide, band);
+        end();
+        return seam;
+    }
 
-        return leftRight;
+    private int[] nearSeam(boolean isVerticalSeam, int[] guide, int band) {
+        boolean across = orient(isVerticalSeam);
+        int positions = isVerticalSeam ? width() : height();
+        int[] lo = new int[guide.length];
+        int[] hi = new int[guide.length];
+        for (int i = 0; i < guide.length; i++) {
+            lo[i] = Math.max(0, Math.min(guide[i], positions - 1) - band);
+            hi[i] = Math.min(positions - 1, guide[i] + band);
+        }
+        return corridorSeam(0, lo, hi, across);
     }
 
-    private double[][] toVertical(double[][] arr) {
-        // phase 1: diagonal exchange
-        double[][] diagonal = diagonal(arr);
+    // DP on level l over positions lo[i]..hi[i] of every step i
+    private int[] corridorSeam(int l, int[] lo, int[] hi, boolean across) {
+        int steps = lo.length;
+        int width = 0;
+        long relaxed = 0;
+        for (int i = 0; i < steps; i++) {
+            width = Math.max(width, hi[i] - lo[i] + 1);
+            relaxed += hi[i] - lo[i] + 1;
+        }
+        if (metrics != null)
+            metrics.relaxed(relaxed);
+        double[] prev = new double[width];
+        double[] dist = new double[width];
+        byte[][] edge = new byte[steps][width];
+        for (int i = 0; i < steps; i++) {
+            for (int j = lo[i]; j <= hi[i]; j++) {
+                double e = levelEnergy(l, i, j, across);
+                if (i == 0) {
+                    dist[j - lo[i]] = e;
+                    continue;
+                }
+                int best = -1;
+                for (int k = Math.max(j - 1, lo[i - 1]); k <= Math.min(j + 1, hi[i - 1]); k++) {
+                    if (best == -1 || prev[k - lo[i - 1]] < prev[best - lo[i - 1]])
+                        best = k;
+                }
+                if (best == -1) {
+                    // no predecessor inside the band
+                    dist[j - lo[i]] = Double.POSITIVE_INFINITY;
+                } else {
+                    dist[j - lo[i]] = prev[best - lo[i - 1]] + e;
+                    edge[i][j - lo[i]] = (byte) (best - j);
+                }
+            }
+            double[] temp = prev;
+            prev = dist;
+            dist = temp;
+        }
 
-        // phase 1: left and right exchange
-        double[][] leftRight = leftRight(diagonal);
+        // find seam endpoint
+        int end = lo[steps - 1];
+        for (int j = lo[steps - 1] + 1; j <= hi[steps - 1]; j++) {
+            if (prev[j - lo[steps - 1]] < prev[end - lo[steps - 1]])
+                end = j;
+        }
 
-        return leftRight;
+        // build return array
+        int[] res = new int[steps];
+        res[steps - 1] = end;
+        for (int i = steps - 2; i >= 0; i--) {
+            res[i] = res[i + 1] + edge[i + 1][res[i + 1] - lo[i + 1]];
+        }
+        return res;
     }
 
-    private int[][] upDown(int[][] arr) {
-        int width = arr.length;
-        int height = arr[0].length;
+    // run the full DP pass unless the tables are still valid for this direction
+    private void buildTables(boolean isVerticalSeam, int steps, int positions, boolean across) {
+        if (!tablesValid || tablesVertical != isVerticalSeam) {
+            ensureTables(steps, positions);
+            relaxAll(steps, positions, across);
+            tablesValid = true;
+            tablesVertical = isVerticalSeam;
+        }
+    }
 
-        for (int col = 0; col < width; col++) {
-            for (int row = 0; row < height / 2; row++) {
-                // exchange [col, row] with [col, height - row - 1]
-                int temp = arr[col][row];
-                arr[col][row] = arr[col][height - row - 1];
-                arr[col][height - row - 1] = temp;
+    // up to count pixel-disjoint seams from one DP pass: backtrack from the endpoints in order
+    // of their distance and skip every seam that runs into a pixel an earlier one claimed.
+    // Claimed pixels are marked in edgeTo, so the tables are spent afterwards
+    private int[][] findDisjointSeams(boolean isVerticalSeam, int count) {
+        int steps = isVerticalSeam ? height() : width();
+        int positions = isVerticalSeam ? width() : height();
+        begin(CarverMetrics.Phase.SEAM_SEARCH);
+        final double[] last;
+        if (mapped != null) {
+            last = relaxRolling(steps, positions, isAcross(isVerticalSeam));
+        } else {
+            buildTables(isVerticalSeam, steps, positions, isAcross(isVerticalSeam));
+            last = new double[positions];
+            for (int j = 0; j < positions; j++)
+                last[j] = compactDistTo != null ? compactDistTo[steps - 1][j] : distTo[steps - 1][j];
+        }
+        Integer[] ends = new Integer[positions];
+        for (int j = 0; j < positions; j++)
+            ends[j] = j;
+        // stable, so ties keep the lowest position first like findSeam()
+        Arrays.sort(ends, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(last[a], last[b]);
+            }
+        });
+        List<int[]> seams = new ArrayList<int[]>();
+        for (int e = 0; e < positions && seams.size() < count; e++) {
+            int[] seam = new int[steps];
+            int pos = ends[e];
+            boolean free = true;
+            for (int i = steps - 1; i >= 0 && free; i--) {
+                byte edge = mapped != null ? mapped.edge((long) i * positions + pos) : edgeTo[i][pos];
+                if (edge == CLAIMED) {
+                    free = false;
+                } else {
+                    seam[i] = pos;
+                    pos += edge;
+                }
+            }
+            if (!free)
+                continue;
+            for (int i = 0; i < steps; i++) {
+                if (mapped != null)
+                    mapped.setEdge((long) i * positions + seam[i], CLAIMED);
+                else
+                    edgeTo[i][seam[i]] = CLAIMED;
             }
+            seams.add(seam);
         }
+        tablesValid = false;
+        end();
+        return seams.toArray(new int[seams.size()][]);
+    }
 
-        return arr;
+    // remove pixel-disjoint seams running across the storage all at once, then refresh
+    // the energies next to every removed pixel once
+    private void removeSeams(int[][] seams) {
+        begin(CarverMetrics.Phase.REMOVAL);
+        forgetSeams();
+        int outer = outerSize();
+        int n = seams.length;
+        if (history != null) {
+            // one after the other, each seam shifted by the ones removed before it left of it
+            for (int t = 0; t < n; t++) {
+                int[] seam = new int[outer];
+                int[] pixels = new int[outer];
+                for (int i = 0; i < outer; i++) {
+                    int shift = 0;
+                    for (int u = 0; u < t; u++) {
+                        if (seams[u][i] < seams[t][i])
+                            shift++;
+                    }
+                    seam[i] = seams[t][i] - shift;
+                    pixels[i] = pixelAt(i, seams[t][i]);
+                }
+                // the seams run across the storage
+                record(seam, transposed, pixels);
+            }
+        }
+        // removed positions of every outer array, sorted
+        int[][] removed = new int[outer][n];
+        for (int i = 0; i < outer; i++) {
+            for (int t = 0; t < n; t++)
+                removed[i][t] = seams[t][i];
+            Arrays.sort(removed[i]);
+        }
+        if (mapped != null) {
+            // shift every seam by the ones removed before it left of it
+            int[] seam = new int[outer];
+            for (int t = 0; t < n; t++) {
+                for (int i = 0; i < outer; i++) {
+                    int shift = 0;
+                    for (int u = 0; u < t; u++) {
+                        if (seams[u][i] < seams[t][i])
+                            shift++;
+                    }
+                    seam[i] = seams[t][i] - shift;
+                }
+                mapped.removeAcross(seam);
+            }
+        } else {
+            for (int i = 0; i < outer; i++) {
+                removePositions(rgbMatrix[i], removed[i], innerCount);
+                if (compactEnergyMatrix != null)
+                    removePositions(compactEnergyMatrix[i], removed[i], innerCount);
+                else
+                    removePositions(energyMatrix[i], removed[i], innerCount);
+            }
+            innerCount -= n;
+        }
+        end();
+        begin(CarverMetrics.Phase.ENERGY);
+        int inner = innerSize();
+        int r = energyFunction.radius();
+        int reach = energyFunction.square() ? r : 0;
+        for (int i = r; i < outer - r; i++) {
+            for (int k = Math.max(0, i - reach); k <= Math.min(outer - 1, i + reach); k++) {
+                for (int t = 0; t < n; t++) {
+                    // position right after the removed pixel once the ones before it are gone
+                    int pos = removed[k][t] - t;
+                    refreshEnergies(i, Math.max(0, pos - r), Math.min(inner, pos + r));
+                }
+            }
+        }
+        end();
+        if (mapped == null) {
+            begin(CarverMetrics.Phase.REMOVAL);
+            trimIfSparse();
+            end();
+        }
     }
 
-    private double[][] upDown(double[][] arr) {
-        int width = arr.length;
-        int height = arr[0].length;
+    // remove the sorted positions from the first inner entries of one outer array in a single pass
+    private static void removePositions(int[] row, int[] sorted, int inner) {
+        int write = sorted[0];
+        for (int t = 0; t < sorted.length; t++) {
+            int from = sorted[t] + 1;
+            int to = t + 1 < sorted.length ? sorted[t + 1] : inner;
+            System.arraycopy(row, from, row, write, to - from);
+            write += to - from;
+        }
+    }
 
-        for (int col = 0; col < width; col++) {
-            for (int row = 0; row < height / 2; row++) {
-                // exchange [col, row] with [col, height - row - 1]
-                double temp = arr[col][row];
-                arr[col][row] = arr[col][height - row - 1];
-                arr[col][height - row - 1] = temp;
-            }
+    private static void removePositions(double[] row, int[] sorted, int inner) {
+        int write = sorted[0];
+        for (int t = 0; t < sorted.length; t++) {
+            int from = sorted[t] + 1;
+            int to = t + 1 < sorted.length ? sorted[t + 1] : inner;
+            System.arraycopy(row, from, row, write, to - from);
+            write += to - from;
         }
+    }
 
-        return arr;
+    private static void removePositions(float[] row, int[] sorted, int inner) {
+        int write = sorted[0];
+        for (int t = 0; t < sorted.length; t++) {
+            int from = sorted[t] + 1;
+            int to = t + 1 < sorted.length ? sorted[t + 1] : inner;
+            System.arraycopy(row, from, row, write, to - from);
+            write += to - from;
+        }
     }
 
-    private int[][] leftRight(int[][] arr) {
-        int width = arr.length;
+    // full DP pass; with a pool the positions are cut into chunks and every band of steps is done
+    // in two parallel phases: shrinking trapezoids inside each chunk, then the triangles between them.
+    // Every cell is still computed once from the same inputs, so the seam matches the sequential pass
+    private void relaxAll(final int steps, final int positions, final boolean across) {
+        if (metrics != null)
+            metrics.relaxed((long) steps * positions);
+        int chunks = pool == null ? 1 : Math.min(pool.getParallelism(), positions / PARALLEL_CHUNK);
+        if (chunks < 2) {
+            for (int i = 0; i < steps; i++)
+                relax(i, 0, positions - 1, positions, across, false, line);
+            return;
+        }
+        final int[] bounds = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++)
+            bounds[c] = (int) ((long) c * positions / chunks);
+        // a trapezoid loses one position per step on each inner side, so the band is half a chunk high
+        final int band = (positions / chunks) / 2;
+        // every chunk gathers its energies into its own line
+        final double[][] lines = new double[chunks][];
+        if (compactEnergyMatrix == null && (mapped != null || !across)) {
+            for (int c = 0; c < chunks; c++)
+                lines[c] = new double[positions];
+        }
+        final List<ForkJoinTask<?>> trapezoids = new ArrayList<ForkJoinTask<?>>();
+        final List<ForkJoinTask<?>> gaps = new ArrayList<ForkJoinTask<?>>();
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                for (int top = 0; top < steps; top += band) {
+                    final int first = top;
+                    final int last = Math.min(steps, top + band);
+                    trapezoids.clear();
+                    gaps.clear();
+                    for (int c = 0; c < bounds.length - 1; c++) {
+                        final int a = bounds[c];
+                        final int b = bounds[c + 1] - 1;
+                        final double[] chunkLine = lines[c];
+                        trapezoids.add(ForkJoinTask.adapt(new Runnable() {
+                            public void run() {
+                                for (int i = first; i < last; i++) {
+                                    int k = i - first;
+                                    int lo = a == 0 ? 0 : a + k;
+                                    int hi = b == positions - 1 ? b : b - k;
+                                    relax(i, lo, hi, positions, across, false, chunkLine);
+                                }
+                            }
+                        }));
+                        if (c > 0) {
+                            gaps.add(ForkJoinTask.adapt(new Runnable() {
+                                public void run() {
+                                    for (int i = first + 1; i < last; i++) {
+                                        int k = i - first;
+                                        relax(i, a - k, a + k - 1, positions, across, false, chunkLine);
+                                    }
+                                }
+                            }));
+                        }
+                    }
+                    invokeAll(trapezoids);
+                    invokeAll(gaps);
+                }
+            }
+        });
+    }
 
-        for (int col = 0; col < width / 2; col++) {
-            // exchange left and right
-            int[] temp = arr[col];
-            arr[col] = arr[width - col - 1];
-            arr[width - col - 1] = temp;
+    // full DP pass of the off-heap mode over two rolling rows of distances, writing the edges
+    // of every step to the scratch file; returns the distances of the last step
+    private double[] relaxRolling(int steps, int positions, boolean across) {
+        if (metrics != null)
+            metrics.relaxed((long) steps * positions);
+        double[] prev = new double[positions];
+        double[] dist = new double[positions];
+        double[] buffer = new double[positions];
+        byte[] edge = new byte[positions];
+        for (int i = 0; i < steps; i++) {
+            double[] energy = energyLine(i, 0, positions - 1, across, buffer);
+            for (int j = 0; j < positions; j++) {
+                double d = energy[j];
+                int offset = 0;
+                if (i > 0) {
+                    // prefer the lowest position on ties, same as relax()
+                    int best = j > 0 ? j - 1 : j;
+                    if (j > 0 && prev[j] < prev[best])
+                        best = j;
+                    if (j + 1 < positions && prev[j + 1] < prev[best])
+                        best = j + 1;
+                    d += prev[best];
+                    offset = best - j;
+                }
+                dist[j] = d;
+                edge[j] = (byte) offset;
+            }
+            mapped.writeEdges((long) i * positions, edge, positions);
+            double[] temp = prev;
+            prev = dist;
+            dist = temp;
         }
+        return prev;
+    }
 
-        return arr;
+    // relax positions lo..hi of one step, each pixel pulls from the three pixels before it;
+    // with track set, records which distances changed
+    private void relax(int i, int lo, int hi, int positions, boolean across, boolean track, double[] buffer) {
+        if (compactDistTo != null) {
+            relaxCompact(i, lo, hi, positions, across, track);
+            return;
+        }
+        double[] dist = distTo[i];
+        byte[] edge = edgeTo[i];
+        double[] prev = i > 0 ? distTo[i - 1] : null;
+        double[] energy = energyLine(i, lo, hi, across, buffer);
+        if (track) {
+            changedLo = positions;
+            changedHi = -1;
+        }
+        for (int j = lo; j <= hi; j++) {
+            double e = energy[j];
+            double d = e;
+            int offset = 0;
+            if (prev != null) {
+                // prefer the lowest position on ties, same as the full recompute
+                int best = j > 0 ? j - 1 : j;
+                if (j > 0 && prev[j] < prev[best])
+                    best = j;
+                if (j + 1 < positions && prev[j + 1] < prev[best])
+                    best = j + 1;
+                d = prev[best] + e;
+                offset = best - j;
+            }
+            if (track && d != dist[j]) {
+                if (changedLo == positions)
+                    changedLo = j;
+                changedHi = j;
+            }
+            dist[j] = d;
+            edge[j] = (byte) offset;
+        }
     }
 
-    private double[][] leftRight(double[][] arr) {
-        int width = arr.length;
+    // relax() on the float tables of compact mode
+    private void relaxCompact(int i, int lo, int hi, int positions, boolean across, boolean track) {
+        float[] dist = compactDistTo[i];
+        byte[] edge = edgeTo[i];
+        float[] prev = i > 0 ? compactDistTo[i - 1] : null;
+        float[] energy = across ? compactEnergyMatrix[i] : null;
+        if (track) {
+            changedLo = positions;
+            changedHi = -1;
+        }
+        for (int j = lo; j <= hi; j++) {
+            float e = across ? energy[j] : compactEnergyMatrix[j][i];
+            float d = e;
+            int offset = 0;
+            if (prev != null) {
+                // prefer the lowest position on ties, same as the full recompute
+                int best = j > 0 ? j - 1 : j;
+                if (j > 0 && prev[j] < prev[best])
+                    best = j;
+                if (j + 1 < positions && prev[j + 1] < prev[best])
+                    best = j + 1;
+                d = prev[best] + e;
+                offset = best - j;
+            }
+            if (track && d != dist[j]) {
+                if (changedLo == positions)
+                    changedLo = j;
+                changedHi = j;
+            }
+            dist[j] = d;
+            edge[j] = (byte) offset;
+        }
+    }
 
-        for (int col = 0; col < width / 2; col++) {
-            // exchange left and right
-            double[] temp = arr[col];
-            arr[col] = arr[width - col - 1];
-            arr[width - col - 1] = temp;
+    // energies of step i at positions lo..hi: the heap row itself when the step runs
+    // across the storage, otherwise gathered into buffer
+    private double[] energyLine(int i, int lo, int hi, boolean across, double[] buffer) {
+        if (mapped != null) {
+            if (across)
+                mapped.readEnergies(i, lo, hi, buffer);
+            else
+                mapped.readEnergiesAlong(i, lo, hi, buffer);
+            return buffer;
+        }
+        if (compactEnergyMatrix != null) {
+            // widened into the buffer, the float rows are not doubles
+            for (int j = lo; j <= hi; j++)
+                buffer[j] = across ? compactEnergyMatrix[i][j] : compactEnergyMatrix[j][i];
+            return buffer;
         }
+        if (across)
+            return energyMatrix[i];
+        for (int j = lo; j <= hi; j++)
+            buffer[j] = energyMatrix[j][i];
+        return buffer;
+    }
 
-        return arr;
+    // after removing a seam in the direction the tables were built for, shift the tables
+    // like the pixels and re-relax only the cone below the pixels whose energy changed
+    private void updateTables(int[] seam, boolean isVerticalSeam) {
+        if (!tablesValid || tablesVertical != isVerticalSeam) {
+            tablesValid = false;
+            return;
+        }
+        boolean across = isAcross(isVerticalSeam);
+        int steps = seam.length;
+        int positions = isVerticalSeam ? width() : height();
+        for (int i = 0; i < steps; i++) {
+            if (compactDistTo != null)
+                System.arraycopy(compactDistTo[i], seam[i] + 1, compactDistTo[i], seam[i], positions - seam[i]);
+            else
+                System.arraycopy(distTo[i], seam[i] + 1, distTo[i], seam[i], positions - seam[i]);
+            System.arraycopy(edgeTo[i], seam[i] + 1, edgeTo[i], seam[i], positions - seam[i]);
+        }
+        changedLo = positions;
+        changedHi = -1;
+        long relaxed = 0;
+        for (int i = 0; i < steps; i++) {
+            // energies changed in the band of the energy function, and the predecessor window
+            // differs from the one before the shift for positions seam - 2 .. seam + 1
+            int from = Math.min(Math.max(0, seam[i] - 2), bandLo(seam, i));
+            int to = Math.max(Math.min(positions - 1, seam[i] + 1), bandHi(seam, i, positions));
+            if (changedLo <= changedHi) {
+                // positions next to a changed distance in the step before
+                from = Math.min(from, Math.max(0, changedLo - 1));
+                to = Math.max(to, Math.min(positions - 1, changedHi + 1));
+            }
+            relax(i, from, to, positions, across, true, line);
+            relaxed += to - from + 1;
+        }
+        if (metrics != null)
+            metrics.relaxed(relaxed);
     }
 
     private int[][] diagonal(int[][] arr) {
-        int width = arr.length;
-        int height = arr[0].length;
+        int width = outerCount;
+        int height = innerCount;
 
         // create a generate array that is T type (not Object type)
         int[][] res = new int[height][width];
@@ -370,8 +2064,8 @@ public class SeamCarver {
     }
 
     private double[][] diagonal(double[][] arr) {
-        int width = arr.length;
-        int height = arr[0].length;
+        int width = outerCount;
+        int height = innerCount;
 
         // create a generate array that is T type (not Object type)
         double[][] res = new double[height][width];
@@ -385,43 +2079,59 @@ public class SeamCarver {
         return res;
     }
 
+    private float[][] diagonal(float[][] arr) {
+        int width = outerCount;
+        int height = innerCount;
+
+        // create a generate array that is T type (not Object type)
+        float[][] res = new float[height][width];
+
+        for (int col = 0; col < width; col++) {
+            for (int row = 0; row < height; row++) {
+                // exchange diagnonal
+                res[row][col] = arr[col][row];
+            }
+        }
+        return res;
+    }
+
     private void validatePixel(int x, int y) {
         if (x < 0 || x >= width() || y < 0 || y >= height())
             throw new IllegalArgumentException("Pixel is outside its prescribed range");
     }
 
-    // check whether the pixel is at the border
-    private boolean atBorder(int x, int y) {
-        if (x == 0 || x == width() - 1 || y == 0 || y == height() - 1)
-            return true;
-        return false;
+    // packed rgb value of a pixel, whatever the storage orientation
+    private int rgb(int x, int y) {
+        return transposed ? pixelAt(y, x) : pixelAt(x, y);
     }
 
-    // calculate square gradient between pixel(x1, y1) and pixel(x2, y2)
-    // which is the quare sum of differences in the red, green and blue components
-    private int squareGradient(int x1, int y1, int x2, int y2) {
-        // pixel1 rgb value
-        int[] rgb1 = getRGB(x1, y1);
-        // pixel2 rgb value
-        int[] rgb2 = getRGB(x2, y2);
-        int res = 0;
-        for (int i = 0; i < 3; i++)
-            res += centralDiff(rgb1[i], rgb2[i]);
-        return res;
+    // storage accessors, the heap matrixes or the mapped scratch file
+
+    private int outerSize() {
+        return mapped != null ? mapped.outer() : outerCount;
+    }
+
+    private int innerSize() {
+        return mapped != null ? mapped.inner() : innerCount;
+    }
+
+    private int pixelAt(int i, int j) {
+        return mapped != null ? mapped.rgb(i, j) : rgbMatrix[i][j];
     }
 
-    // calculate square difference
-    private int centralDiff(int c1, int c2) {
-        return (c1 - c2) * (c1 - c2);
+    private double energyAt(int i, int j) {
+        if (mapped != null)
+            return mapped.energy(i, j);
+        return compactEnergyMatrix != null ? compactEnergyMatrix[i][j] : energyMatrix[i][j];
     }
 
-    // get rgb value of a pixel
-    private int[] getRGB(int x, int y) {
-        int rgb = rgbMatrix[x][y];
-        int r = (rgb >> 16) & 0XFF;
-        int g = (rgb >> 8) & 0XFF;
-        int b = (rgb >> 0) & 0XFF;
-        return new int[] { r, g, b };
+    private void setEnergyAt(int i, int j, double energy) {
+        if (mapped != null)
+            mapped.setEnergy(i, j, energy);
+        else if (compactEnergyMatrix != null)
+            compactEnergyMatrix[i][j] = (float) energy;
+        else
+            energyMatrix[i][j] = energy;
     }
 
     // test method
@@ -429,7 +2139,7 @@ public class SeamCarver {
     private void printEnergyMatrix() {
         for (int row = 0; row < height(); row++) {
             for (int col = 0; col < width(); col++) {
-                double energy = this.energyMatrix[col][row];
+                double energy = energy(col, row);
                 StdOut.printf("%7.2f ", energy);
             }
             StdOut.println();
@@ -449,7 +2159,7 @@ public class SeamCarver {
         System.out.println();
         System.out.println();
 
-        carver.horizontalTranspose();
+        carver.transpose();
 
         carver.printEnergyMatrix();
         /**
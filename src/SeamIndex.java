@@ -0,0 +1,186 @@
+/******************************************************************************
+ *  Compilation:  javac SeamIndex.java
+ *  Execution:    java SeamIndex input.png minWidth width1 width2 ...
+ *  Dependencies: SeamCarver.java
+ *
+ *  Carve a picture once down to a minimum width and record, for every pixel,
+ *  the number of the vertical seam that removed it. A picture of any width
+ *  down to that minimum is then the source picture without the pixels of
+ *  the first (width - targetWidth) seams, one linear pass and no seam search.
+ *
+ *  The index is saved as a small binary file: the magic "SIDX", the format
+ *  version, width, height and minimum width as big-endian ints, then one
+ *  big-endian unsigned short per pixel in row-major order. Pixels that are
+ *  never removed hold width - minWidth.
+ *
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class SeamIndex {
+
+    private static final int MAGIC = 0x53494458;
+    private static final int VERSION = 1;
+    // seam numbers are stored as unsigned shorts
+    private static final int MAX_SEAMS = 0xFFFF;
+
+    private final int width;
+    private final int height;
+    private final int minWidth;
+    // seam that removed each pixel, row-major, width - minWidth if none did
+    private final char[] order;
+
+    private SeamIndex(int width, int height, int minWidth, char[] order) {
+        this.width = width;
+        this.height = height;
+        this.minWidth = minWidth;
+        this.order = order;
+    }
+
+    // carve the picture down to minWidth and record the seam that removed every pixel
+    public static SeamIndex build(Picture picture, int minWidth) {
+        if (picture == null)
+            throw new IllegalArgumentException("argument is null");
+        int width = picture.width();
+        int height = picture.height();
+        if (minWidth < 1 || minWidth > width)
+            throw new IllegalArgumentException("minimum width outside [1, " + width + "]");
+        if (width - minWidth > MAX_SEAMS)
+            throw new IllegalArgumentException("at most " + MAX_SEAMS + " seams can be indexed");
+        char[] order = new char[width * height];
+        Arrays.fill(order, (char) (width - minWidth));
+        // source column of every pixel still in the carver
+        int[][] column = new int[height][width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++)
+                column[row][col] = col;
+        }
+        SeamCarver sc = new SeamCarver(picture);
+        for (int s = 0; s < width - minWidth; s++) {
+            int[] seam = sc.findVerticalSeam();
+            int current = width - s;
+            for (int row = 0; row < height; row++) {
+                order[row * width + column[row][seam[row]]] = (char) s;
+                System.arraycopy(column[row], seam[row] + 1, column[row], seam[row], current - seam[row] - 1);
+            }
+            sc.removeVerticalSeam(seam);
+        }
+        return new SeamIndex(width, height, minWidth, order);
+    }
+
+    // width of the source picture
+    public int width() {
+        return width;
+    }
+
+    // height of the source picture
+    public int height() {
+        return height;
+    }
+
+    // smallest width the index can retarget to
+    public int minWidth() {
+        return minWidth;
+    }
+
+    // the source picture carved to the given width, the same picture as removing that many
+    // vertical seams one by one
+    public Picture retarget(Picture source, int targetWidth) {
+        if (source == null)
+            throw new IllegalArgumentException("argument is null");
+        if (source.width() != width || source.height() != height)
+            throw new IllegalArgumentException("picture is not the one the index was built for");
+        if (targetWidth < minWidth || targetWidth > width)
+            throw new IllegalArgumentException("width outside [" + minWidth + ", " + width + "]");
+        int removed = width - targetWidth;
+        Picture res = new Picture(targetWidth, height);
+        for (int row = 0; row < height; row++) {
+            int col = 0;
+            for (int i = row * width, end = i + width; i < end; i++) {
+                if (order[i] >= removed)
+                    res.setRGB(col++, row, source.getRGB(i - row * width, row));
+            }
+        }
+        return res;
+    }
+
+    // write the index in the binary format above
+    public void save(File file) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(minWidth);
+            ByteBuffer bytes = ByteBuffer.allocate(2 * order.length);
+            bytes.asCharBuffer().put(order);
+            out.write(bytes.array());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // read an index written by save()
+    public static SeamIndex load(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IllegalArgumentException(file + " is not a seam index");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IllegalArgumentException(file + " has unsupported version " + version);
+            int width = in.readInt();
+            int height = in.readInt();
+            int minWidth = in.readInt();
+            if (width < 1 || height < 1 || minWidth < 1 || minWidth > width || 2L * width * height > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(file + " has an invalid header");
+            byte[] bytes = new byte[2 * width * height];
+            in.readFully(bytes);
+            char[] order = new char[width * height];
+            ByteBuffer.wrap(bytes).asCharBuffer().get(order);
+            return new SeamIndex(width, height, minWidth, order);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // file the index of an image is kept in, next to the image
+    public static File indexFile(File image) {
+        return new File(image.getPath() + ".seams");
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            StdOut.println("Usage:\njava SeamIndex [image filename] [min width] [widths...]");
+            return;
+        }
+        File image = new File(args[0]);
+        Picture picture = new Picture(image);
+        int minWidth = Integer.parseInt(args[1]);
+
+        Stopwatch sw = new Stopwatch();
+        SeamIndex index = build(picture, minWidth);
+        index.save(indexFile(image));
+        StdOut.println("Index time: " + sw.elapsedTime() + " seconds.");
+
+        sw = new Stopwatch();
+        index = load(indexFile(image));
+        for (int i = 2; i < args.length; i++)
+            index.retarget(picture, Integer.parseInt(args[i]));
+        StdOut.println("Load and retarget time: " + sw.elapsedTime() + " seconds.");
+    }
+
+}
@@ -0,0 +1,353 @@
+/******************************************************************************
+ *  Compilation:  javac SeamLog.java
+ *  Execution:    none
+ *  Dependencies: SeamCarver.java
+ *
+ *  The seams removed from a picture, in order: each one as its direction,
+ *  its position in the first step and 2 bits per further step for the move
+ *  of -1, 0 or +1 from the step before. A log replays onto the picture it
+ *  was recorded on without a seam search, every run of seams in one
+ *  direction in a single pass over the pixels.
+ *
+ *  The log is saved as a small binary file: the magic "SLOG", the format
+ *  version, the width and height of the picture and the number of seams as
+ *  big-endian ints; then per seam a direction byte (1 for vertical), its
+ *  length and first position as ints; then the number of steps as a long
+ *  and the steps as big-endian longs of 32 steps each, lowest bits first.
+ *
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class SeamLog {
+
+    private static final int MAGIC = 0x534C4F47;
+    private static final int VERSION = 1;
+    private static final int STEPS_PER_WORD = 32;
+
+    private final int width;
+    private final int height;
+    private int size;
+    private boolean[] vertical = new boolean[16];
+    private int[] lengths = new int[16];
+    private int[] starts = new int[16];
+    // index of the first step of every seam in steps
+    private long[] offsets = new long[16];
+    private long[] steps = new long[16];
+    private long stepCount;
+
+    // empty log of seams removed from a width-by-height picture
+    SeamLog(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    // width of the picture the first seam was removed from
+    public int width() {
+        return width;
+    }
+
+    // height of the picture the first seam was removed from
+    public int height() {
+        return height;
+    }
+
+    // number of seams
+    public int size() {
+        return size;
+    }
+
+    // whether seam n is vertical
+    public boolean isVertical(int n) {
+        validateIndex(n);
+        return vertical[n];
+    }
+
+    // seam n, as findVerticalSeam() or findHorizontalSeam() returned it
+    public int[] seam(int n) {
+        validateIndex(n);
+        int[] seam = new int[lengths[n]];
+        seam[0] = starts[n];
+        long step = offsets[n];
+        for (int i = 1; i < seam.length; i++, step++) {
+            int move = (int) (steps[(int) (step / STEPS_PER_WORD)] >>> (2 * (step % STEPS_PER_WORD))) & 3;
+            seam[i] = seam[i - 1] + move - 1;
+        }
+        return seam;
+    }
+
+    // the picture the log was recorded on with all its seams removed again, by a carver that can
+    // undo() them; the seams are not searched, and each run of seams in one direction is removed
+    // in one pass over the pixels
+    public SeamCarver replay(Picture original) {
+        if (original == null)
+            throw new IllegalArgumentException("argument is null");
+        if (original.width() != width || original.height() != height)
+            throw new IllegalArgumentException("picture is not the one the log was recorded on");
+        int w = width;
+        int h = height;
+        int[] argb = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            for (int col = 0; col < w; col++)
+                argb[row * w + col] = original.getRGB(col, row);
+        }
+        List<int[]> removed = new ArrayList<int[]>(size);
+        for (int n = 0; n < size; ) {
+            int end = n;
+            while (end < size && vertical[end] == vertical[n])
+                end++;
+            removeRun(argb, w, h, n, end, vertical[n], removed);
+            if (vertical[n])
+                w -= end - n;
+            else
+                h -= end - n;
+            n = end;
+        }
+        SeamCarver carver = new SeamCarver(argb, w, h);
+        carver.restoreHistory(copy(size), removed);
+        return carver;
+    }
+
+    // write the log in the binary format above
+    public void save(File file) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(size);
+            for (int n = 0; n < size; n++) {
+                out.writeByte(vertical[n] ? 1 : 0);
+                out.writeInt(lengths[n]);
+                out.writeInt(starts[n]);
+            }
+            out.writeLong(stepCount);
+            for (int w = 0; w < words(stepCount); w++)
+                out.writeLong(steps[w]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // read a log written by save()
+    public static SeamLog load(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IllegalArgumentException(file + " is not a seam log");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IllegalArgumentException(file + " has unsupported version " + version);
+            int width = in.readInt();
+            int height = in.readInt();
+            int size = in.readInt();
+            if (width < 1 || height < 1 || size < 0 || size > width + height)
+                throw new IllegalArgumentException(file + " has an invalid header");
+            SeamLog log = new SeamLog(width, height);
+            log.ensureSeams(size);
+            long expected = 0;
+            for (int n = 0; n < size; n++) {
+                log.vertical[n] = in.readByte() == 1;
+                log.lengths[n] = in.readInt();
+                log.starts[n] = in.readInt();
+                if (log.lengths[n] < 1 || log.lengths[n] > Math.max(width, height))
+                    throw new IllegalArgumentException(file + " has an invalid seam " + n);
+                log.offsets[n] = expected;
+                expected += log.lengths[n] - 1;
+            }
+            log.size = size;
+            log.stepCount = in.readLong();
+            if (log.stepCount != expected)
+                throw new IllegalArgumentException(file + " has " + log.stepCount + " steps, not " + expected);
+            log.steps = new long[Math.max(1, words(expected))];
+            for (int w = 0; w < words(expected); w++) {
+                long word = in.readLong();
+                // steps past the last one are left over from truncated seams
+                int used = (int) Math.min(STEPS_PER_WORD, expected - (long) w * STEPS_PER_WORD);
+                long mask = used == STEPS_PER_WORD ? -1L : (1L << (2 * used)) - 1;
+                // both bits set is a move of +2, which no seam makes
+                long invalid = word & word >>> 1 & 0x5555555555555555L & mask;
+                if (invalid != 0)
+                    throw new IllegalArgumentException(file + " has an invalid step "
+                            + ((long) w * STEPS_PER_WORD + Long.numberOfTrailingZeros(invalid) / 2));
+                log.steps[w] = word;
+            }
+            return log;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // append a seam
+    void add(int[] seam, boolean isVertical) {
+        ensureSeams(size + 1);
+        if (words(stepCount + seam.length - 1) > steps.length)
+            steps = Arrays.copyOf(steps, Math.max(2 * steps.length, words(stepCount + seam.length - 1)));
+        vertical[size] = isVertical;
+        lengths[size] = seam.length;
+        starts[size] = seam[0];
+        offsets[size] = stepCount;
+        for (int i = 1; i < seam.length; i++, stepCount++) {
+            long move = seam[i] - seam[i - 1] + 1;
+            int w = (int) (stepCount / STEPS_PER_WORD);
+            int shift = (int) (2 * (stepCount % STEPS_PER_WORD));
+            steps[w] = steps[w] & ~(3L << shift) | move << shift;
+        }
+        size++;
+    }
+
+    // keep the first n seams only
+    void truncate(int n) {
+        if (n >= size)
+            return;
+        size = n;
+        stepCount = n == 0 ? 0 : offsets[n - 1] + lengths[n - 1] - 1;
+    }
+
+    // a log of the first n seams
+    SeamLog copy(int n) {
+        SeamLog res = new SeamLog(width, height);
+        res.size = Math.min(n, size);
+        res.vertical = Arrays.copyOf(vertical, Math.max(1, res.size));
+        res.lengths = Arrays.copyOf(lengths, Math.max(1, res.size));
+        res.starts = Arrays.copyOf(starts, Math.max(1, res.size));
+        res.offsets = Arrays.copyOf(offsets, Math.max(1, res.size));
+        res.stepCount = res.size == 0 ? 0 : offsets[res.size - 1] + lengths[res.size - 1] - 1;
+        res.steps = Arrays.copyOf(steps, Math.max(1, words(res.stepCount)));
+        return res;
+    }
+
+    // helper functions
+
+    // remove seams from (inclusive) to to (exclusive), all vertical or all horizontal, from the
+    // row-major width-by-height pixels, in place; the pixels each seam removed are added to
+    // removed. The position of a seam, counted among the pixels left by the seams before it, is
+    // turned into the original one per row (column for horizontal seams): by counting the
+    // removed positions before it for a few seams, with a Fenwick tree over the positions still
+    // present for many. Then the pixels left are moved up in one pass in memory order
+    private void removeRun(int[] argb, int width, int height, int from, int to, boolean vertical,
+            List<int[]> removed) {
+        int positions = vertical ? width : height;
+        int lines = vertical ? height : width;
+        int k = to - from;
+        if (k >= positions)
+            throw new IllegalArgumentException("log removes all of the picture");
+        int[][] seams = new int[k][];
+        int[][] pixels = new int[k][lines];
+        for (int t = 0; t < k; t++) {
+            seams[t] = seam(from + t);
+            if (seams[t].length != lines)
+                throw new IllegalArgumentException("seam " + (from + t) + " does not fit the picture");
+            for (int i = 1; i < lines; i++) {
+                if (Math.abs(seams[t][i] - seams[t][i - 1]) > 1)
+                    throw new IllegalArgumentException("two adjacent entries in seam " + (from + t) + " differ by more than 1");
+            }
+        }
+        // original positions removed from every line, ascending
+        int[][] gone = new int[lines][k];
+        boolean counting = (long) k * k <= positions;
+        int[] tree = counting ? null : new int[positions + 1];
+        for (int line = 0; line < lines; line++) {
+            int[] sorted = gone[line];
+            if (!counting) {
+                // every position present
+                for (int i = 1; i <= positions; i++)
+                    tree[i] = i & -i;
+            }
+            for (int t = 0; t < k; t++) {
+                int p = seams[t][line];
+                if (p < 0 || p >= positions - t)
+                    throw new IllegalArgumentException("seam " + (from + t) + " leaves the picture");
+                int original = p;
+                int at = 0;
+                if (counting) {
+                    while (at < t && sorted[at] <= original) {
+                        original++;
+                        at++;
+                    }
+                } else {
+                    original = select(tree, p);
+                    for (int i = original + 1; i <= positions; i += i & -i)
+                        tree[i]--;
+                    while (at < t && sorted[at] < original)
+                        at++;
+                }
+                System.arraycopy(sorted, at, sorted, at + 1, t - at);
+                sorted[at] = original;
+                pixels[t][line] = vertical ? argb[line * width + original] : argb[original * width + line];
+            }
+        }
+        for (int[] seam : pixels)
+            removed.add(seam);
+        if (vertical) {
+            int kept = 0;
+            for (int row = 0; row < height; row++) {
+                int[] sorted = gone[row];
+                int col = 0;
+                for (int t = 0; t <= k; t++) {
+                    int end = t < k ? sorted[t] : width;
+                    System.arraycopy(argb, row * width + col, argb, kept, end - col);
+                    kept += end - col;
+                    col = end + 1;
+                }
+            }
+        } else {
+            // the next removed row of every column, and how many were removed above it
+            int[] next = new int[width];
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    int t = next[col];
+                    if (t < k && gone[col][t] == row)
+                        next[col]++;
+                    else
+                        argb[(row - t) * width + col] = argb[row * width + col];
+                }
+            }
+        }
+    }
+
+    // 0-based index of the (p + 1)-th position still present
+    private static int select(int[] tree, int p) {
+        int index = 0;
+        int rest = p + 1;
+        for (int bit = Integer.highestOneBit(tree.length - 1); bit > 0; bit >>= 1) {
+            if (index + bit < tree.length && tree[index + bit] < rest) {
+                index += bit;
+                rest -= tree[index];
+            }
+        }
+        return index;
+    }
+
+    private void ensureSeams(int n) {
+        if (n <= vertical.length)
+            return;
+        int capacity = Math.max(n, 2 * vertical.length);
+        vertical = Arrays.copyOf(vertical, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+    }
+
+    private static int words(long stepCount) {
+        return (int) ((stepCount + STEPS_PER_WORD - 1) / STEPS_PER_WORD);
+    }
+
+    private void validateIndex(int n) {
+        if (n < 0 || n >= size)
+            throw new IllegalArgumentException("seam " + n + " outside [0, " + size + ")");
+    }
+
+}
@@ -0,0 +1,248 @@
+/******************************************************************************
+ *  Compilation:  javac SequenceCarver.java
+ *  Execution:    java SequenceCarver outputDirectory columnsToRemove rowsToRemove frame1.png frame2.png ...
+ *  Dependencies: SeamCarver.java
+ *
+ *  Carve a sequence of frames to one new size. Every seam is first searched
+ *  within a band around the seam removed at the same point of the previous
+ *  frame, and only searched on the whole frame again when the banded seam
+ *  costs more than the previous one allowed for by a tolerance. Seams then
+ *  stay put from frame to frame, which is both faster and steadier to watch.
+ *  Decoding, carving and encoding run on three threads connected by small
+ *  bounded queues, so the three stages overlap.
+ *
+ ******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import edu.princeton.cs.algs4.Picture;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class SequenceCarver {
+
+    // frames waiting between two stages
+    private static final int QUEUE_DEPTH = 2;
+    // how often a stage waiting on a queue checks whether the stage on the other side failed
+    private static final long POLL_MILLIS = 100;
+
+    private final int columns;
+    private final int rows;
+    private final int band;
+    private final double tolerance;
+
+    // seams and their energies of the previous frame, vertical ones first, and its size
+    private int[][] previousSeams;
+    private double[] previousCosts;
+    private int previousWidth = -1;
+    private int previousHeight = -1;
+
+    // seams found within the band and seams that needed the full search
+    private long warmSeams;
+    private long fullSeams;
+
+    // remove columns vertical and then rows horizontal seams from every frame, searching band
+    // positions either side of the previous frame's seam and accepting the banded seam while its
+    // energy is at most (1 + tolerance) times that of the previous one
+    public SequenceCarver(int columns, int rows, int band, double tolerance) {
+        if (columns < 0 || rows < 0)
+            throw new IllegalArgumentException("number of seams must not be negative");
+        if (band < 1)
+            throw new IllegalArgumentException("band must be at least 1");
+        if (tolerance < 0)
+            throw new IllegalArgumentException("tolerance must not be negative");
+        this.columns = columns;
+        this.rows = rows;
+        this.band = band;
+        this.tolerance = tolerance;
+        this.previousSeams = new int[columns + rows][];
+        this.previousCosts = new double[columns + rows];
+    }
+
+    // carve one frame, the frames are expected in sequence order
+    public Picture carve(Picture frame) {
+        if (frame == null)
+            throw new IllegalArgumentException("argument is null");
+        // a cut to a frame of another size starts over
+        if (frame.width() != previousWidth || frame.height() != previousHeight) {
+            previousSeams = new int[columns + rows][];
+            previousWidth = frame.width();
+            previousHeight = frame.height();
+        }
+        SeamCarver sc = new SeamCarver(frame);
+        for (int i = 0; i < columns + rows; i++) {
+            boolean vertical = i < columns;
+            int[] seam = nextSeam(sc, i, vertical);
+            if (vertical)
+                sc.removeVerticalSeam(seam);
+            else
+                sc.removeHorizontalSeam(seam);
+        }
+        return sc.picture();
+    }
+
+    // carve the frame files into files of the same names in the output directory
+    public void carve(List<File> frames, final File outputDirectory) {
+        if (frames == null || outputDirectory == null)
+            throw new IllegalArgumentException("argument is null");
+        final List<File> inputs = new ArrayList<File>(frames);
+        final BlockingQueue<Frame> decoded = new ArrayBlockingQueue<Frame>(QUEUE_DEPTH);
+        final BlockingQueue<Frame> carved = new ArrayBlockingQueue<Frame>(QUEUE_DEPTH);
+        ExecutorService io = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> decoder = io.submit(new Runnable() {
+                public void run() {
+                    try {
+                        for (File file : inputs)
+                            decoded.put(new Frame(file, new Picture(file)));
+                        decoded.put(Frame.END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Future<?> encoder = io.submit(new Runnable() {
+                public void run() {
+                    try {
+                        for (Frame frame = carved.take(); frame != Frame.END; frame = carved.take())
+                            frame.picture.save(new File(outputDirectory, frame.file.getName()));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            for (int n = 0; n < inputs.size(); n++) {
+                Frame frame = take(decoded, decoder);
+                put(carved, new Frame(frame.file, carve(frame.picture)), encoder);
+            }
+            put(carved, Frame.END, encoder);
+            encoder.get();
+            decoder.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while carving frames", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("cannot carve frames: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            // a failed stage must not leave the other one blocked on its queue
+            io.shutdownNow();
+        }
+    }
+
+    // seams found within the band so far
+    public long warmSeams() {
+        return warmSeams;
+    }
+
+    // seams that needed the search on the whole frame so far
+    public long fullSeams() {
+        return fullSeams;
+    }
+
+    // helper functions
+
+    // next frame from the queue, or the failure of the stage filling it
+    private static Frame take(BlockingQueue<Frame> queue, Future<?> producer)
+            throws InterruptedException, ExecutionException {
+        while (true) {
+            Frame frame = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (frame != null)
+                return frame;
+            if (producer.isDone()) {
+                // surfaces the failure, a producer that finished normally left its frames queued
+                producer.get();
+                frame = queue.poll();
+                if (frame == null)
+                    throw new IllegalStateException("stage stopped early");
+                return frame;
+            }
+        }
+    }
+
+    // hand a frame to the queue, or the failure of the stage draining it
+    private static void put(BlockingQueue<Frame> queue, Frame frame, Future<?> consumer)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(frame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (consumer.isDone()) {
+                consumer.get();
+                throw new IllegalStateException("stage stopped early");
+            }
+        }
+    }
+
+    // seam i of this frame, within the band around seam i of the previous frame when that is good enough
+    private int[] nextSeam(SeamCarver sc, int i, boolean vertical) {
+        int[] guide = previousSeams[i];
+        int[] seam = null;
+        double cost = 0;
+        if (guide != null) {
+            seam = sc.findSeamNear(vertical, guide, band);
+            cost = energy(sc, seam, vertical);
+            if (cost <= previousCosts[i] * (1 + tolerance)) {
+                warmSeams++;
+            } else {
+                seam = null;
+            }
+        }
+        if (seam == null) {
+            seam = vertical ? sc.findVerticalSeam() : sc.findHorizontalSeam();
+            cost = energy(sc, seam, vertical);
+            fullSeams++;
+        }
+        previousSeams[i] = seam;
+        previousCosts[i] = cost;
+        return seam;
+    }
+
+    private static double energy(SeamCarver sc, int[] seam, boolean vertical) {
+        double total = 0;
+        for (int i = 0; i < seam.length; i++)
+            total += vertical ? sc.energy(seam[i], i) : sc.energy(i, seam[i]);
+        return total;
+    }
+
+    // a frame moving through the pipeline
+    private static class Frame {
+        // marks the end of the sequence
+        static final Frame END = new Frame(null, null);
+
+        final File file;
+        final Picture picture;
+
+        Frame(File file, Picture picture) {
+            this.file = file;
+            this.picture = picture;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            StdOut.println("Usage:\njava SequenceCarver [output directory] [num cols to remove] [num rows to remove] [frames...]");
+            return;
+        }
+        File outputDirectory = new File(args[0]);
+        int removeColumns = Integer.parseInt(args[1]);
+        int removeRows = Integer.parseInt(args[2]);
+        List<File> frames = new ArrayList<File>();
+        for (int i = 3; i < args.length; i++)
+            frames.add(new File(args[i]));
+
+        SequenceCarver carver = new SequenceCarver(removeColumns, removeRows, 8, 0.05);
+        Stopwatch sw = new Stopwatch();
+        carver.carve(frames, outputDirectory);
+        double time = sw.elapsedTime();
+
+        StdOut.printf("%d frames in %.3f seconds, %.2f frames per second\n", frames.size(), time, frames.size() / time);
+        StdOut.printf("%d seams within the band, %d full searches\n", carver.warmSeams(), carver.fullSeams());
+    }
+
+}
@@ -0,0 +1,589 @@
+/******************************************************************************
+ *  Compilation:  javac StreamingCarver.java
+ *  Execution:    java StreamingCarver input.png output.png columnsToRemove [stripHeight]
+ *  Dependencies: SeamCarver.java EnergyFunction.java
+ *
+ *  Remove vertical seams from images larger than memory. The input is
+ *  decoded in horizontal strips into a raw scratch file, and every seam
+ *  is found by streaming that file top to bottom: the DP keeps one row of
+ *  distances and logs its edges to a second scratch file with 2 bits per
+ *  pixel, the seam is backtracked from that log, and the next pass removes
+ *  it while it streams the DP for the seam after. The result is written
+ *  as a PNG strip by strip, so memory stays O(width * stripHeight + height).
+ *
+ ******************************************************************************/
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class StreamingCarver {
+
+    private final File scratchDirectory;
+    private final int stripHeight;
+
+    // picture being carved, row after row of packed rgb values in the pixel file
+    private FileChannel pixels;
+    private FileChannel edges;
+    private int width;
+    private int height;
+
+    // strip buffers
+    private ByteBuffer pixelStrip;
+    private ByteBuffer edgeStrip;
+
+    // rolling state of a streaming pass: three rows of pixels, one row of energies and distances
+    private int[][] window;
+    private double[] energy;
+    private double[] distTo;
+    private double[] nextDist;
+
+    // create a carver keeping its scratch files in the given directory and
+    // reading, carving and writing stripHeight rows at a time
+    public StreamingCarver(File scratchDirectory, int stripHeight) {
+        if (scratchDirectory == null)
+            throw new IllegalArgumentException("scratch directory is null");
+        if (stripHeight < 1)
+            throw new IllegalArgumentException("strip height must be at least 1");
+        this.scratchDirectory = scratchDirectory;
+        this.stripHeight = stripHeight;
+    }
+
+    // remove columns vertical seams from the input image and write the result to output as a PNG
+    public void carve(File input, File output, int columns) {
+        File pixelFile = null;
+        File edgeFile = null;
+        try {
+            pixelFile = File.createTempFile("streaming", ".pixels", scratchDirectory);
+            edgeFile = File.createTempFile("streaming", ".edges", scratchDirectory);
+            try (RandomAccessFile pixelRaf = new RandomAccessFile(pixelFile, "rw");
+                    RandomAccessFile edgeRaf = new RandomAccessFile(edgeFile, "rw")) {
+                pixels = pixelRaf.getChannel();
+                edges = edgeRaf.getChannel();
+                load(input);
+                if (columns < 0 || columns >= width)
+                    throw new IllegalArgumentException("columns to remove outside [0, " + (width - 1) + "]");
+                edgeStrip = ByteBuffer.allocate(stripHeight * edgeBytes(width));
+                window = new int[3][width];
+                energy = new double[width];
+                distTo = new double[width];
+                nextDist = new double[width];
+                int[] seam = null;
+                for (int s = 0; s < columns; s++) {
+                    // remove the previous seam while finding the next one
+                    pass(seam, true, null);
+                    seam = backtrack();
+                }
+                try (PngStripWriter png = new PngStripWriter(output, seam == null ? width : width - 1, height)) {
+                    pass(seam, false, png);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            pixels = null;
+            edges = null;
+            if (pixelFile != null)
+                pixelFile.delete();
+            if (edgeFile != null)
+                edgeFile.delete();
+        }
+    }
+
+    // decode the input strip by strip into the pixel file
+    private void load(File input) throws IOException {
+        // region reads of the png reader decode every row above the region again,
+        // so plain pngs are streamed row by row instead
+        try (PngStripReader png = PngStripReader.open(input)) {
+            if (png != null) {
+                width = png.width;
+                height = png.height;
+                pixelStrip = ByteBuffer.allocate(stripHeight * width * 4);
+                int[] rgb = new int[stripHeight * width];
+                for (int top = 0; top < height; top += stripHeight) {
+                    int rows = Math.min(stripHeight, height - top);
+                    for (int r = 0; r < rows; r++)
+                        png.readRow(rgb, r * width);
+                    writeStrip(rgb, top, rows);
+                }
+                return;
+            }
+        }
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null)
+                throw new IllegalArgumentException("cannot read " + input);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext())
+                throw new IllegalArgumentException("no image reader for " + input);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                pixelStrip = ByteBuffer.allocate(stripHeight * width * 4);
+                int[] rgb = new int[stripHeight * width];
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int top = 0; top < height; top += stripHeight) {
+                    int rows = Math.min(stripHeight, height - top);
+                    param.setSourceRegion(new Rectangle(0, top, width, rows));
+                    BufferedImage strip = reader.read(0, param);
+                    strip.getRGB(0, 0, width, rows, rgb, 0, width);
+                    writeStrip(rgb, top, rows);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private void writeStrip(int[] rgb, int top, int rows) throws IOException {
+        pixelStrip.clear();
+        pixelStrip.asIntBuffer().put(rgb, 0, rows * width);
+        pixelStrip.limit(rows * width * 4);
+        writeFully(pixels, pixelStrip, (long) top * width * 4);
+    }
+
+    // one streaming pass over the pixel file: remove seam (if any) from every row, then either
+    // relax the DP for the next seam and write the rows back, or send them to the PNG writer
+    private void pass(int[] seam, boolean findNext, PngStripWriter png) throws IOException {
+        int oldWidth = width;
+        int newWidth = seam == null ? width : width - 1;
+        width = newWidth;
+        boolean writeBack = findNext && seam != null;
+        int[] row = new int[oldWidth];
+        ByteBuffer out = writeBack ? ByteBuffer.allocate(stripHeight * newWidth * 4) : null;
+        for (int top = 0; top < height; top += stripHeight) {
+            int rows = Math.min(stripHeight, height - top);
+            pixelStrip.clear();
+            pixelStrip.limit(rows * oldWidth * 4);
+            readFully(pixels, pixelStrip, (long) top * oldWidth * 4);
+            IntBuffer strip = pixelStrip.asIntBuffer();
+            IntBuffer outInts = null;
+            if (writeBack) {
+                out.clear();
+                outInts = out.asIntBuffer();
+            }
+            for (int r = 0; r < rows; r++) {
+                strip.get(row, 0, oldWidth);
+                if (seam != null)
+                    System.arraycopy(row, seam[top + r] + 1, row, seam[top + r], oldWidth - seam[top + r] - 1);
+                if (png != null)
+                    png.writeRow(row, newWidth);
+                if (findNext)
+                    push(top + r, row, newWidth);
+                if (writeBack)
+                    outInts.put(row, 0, newWidth);
+            }
+            if (writeBack) {
+                // rows move towards the start of the file, never past data not read yet
+                out.limit(rows * newWidth * 4);
+                writeFully(pixels, out, (long) top * newWidth * 4);
+            }
+        }
+        if (findNext) {
+            // the last row has no row below it
+            relax(height - 1, newWidth);
+            flushEdges(height - 1);
+        }
+    }
+
+    // take row y of the pass; the energy of row y - 1 is known once row y has arrived
+    private void push(int y, int[] row, int width) {
+        int[] temp = window[0];
+        window[0] = window[1];
+        window[1] = window[2];
+        window[2] = temp;
+        System.arraycopy(row, 0, window[2], 0, width);
+        if (y >= 1) {
+            relax(y - 1, width);
+            if (y % stripHeight == 0)
+                flushEdges(y - 1);
+        }
+    }
+
+    // energies of row y from the window (row y is window[1] unless y is the last row), then one
+    // DP step into distTo, with the edges packed into the edge strip
+    private void relax(int y, int width) {
+        boolean last = y == height - 1;
+        int[] cur = last ? window[2] : window[1];
+        if (y == 0 || last || width < 3) {
+            Arrays.fill(energy, 0, width, SeamCarver.BORDER_ENERGY);
+        } else {
+            EnergyFunction.DUAL_GRADIENT.fill(window, 1, width, energy, 0, width);
+        }
+        int base = (y % stripHeight) * edgeBytes(width);
+        for (int b = 0; b < edgeBytes(width); b++)
+            edgeStrip.put(base + b, (byte) 0);
+        if (y == 0) {
+            System.arraycopy(energy, 0, distTo, 0, width);
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            // prefer the lowest column on ties, same as SeamCarver
+            int best = x > 0 ? x - 1 : x;
+            if (x > 0 && distTo[x] < distTo[best])
+                best = x;
+            if (x + 1 < width && distTo[x + 1] < distTo[best])
+                best = x + 1;
+            nextDist[x] = distTo[best] + energy[x];
+            // offsets -1, 0, 1 stored as 0, 1, 2 in two bits
+            int index = base + x / 4;
+            edgeStrip.put(index, (byte) (edgeStrip.get(index) | ((best - x + 1) << (2 * (x % 4)))));
+        }
+        double[] temp = distTo;
+        distTo = nextDist;
+        nextDist = temp;
+    }
+
+    // write the edge rows of the strip that ends at row y to the edge log
+    private void flushEdges(int y) {
+        int top = y - y % stripHeight;
+        int bytes = (y - top + 1) * edgeBytes(width);
+        ByteBuffer out = edgeStrip.duplicate();
+        out.position(0);
+        out.limit(bytes);
+        try {
+            writeFully(edges, out, (long) top * edgeBytes(width));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // seam ending at the lowest distance of the last row, read back from the edge log bottom up
+    private int[] backtrack() throws IOException {
+        int end = 0;
+        for (int x = 1; x < width; x++) {
+            if (distTo[x] < distTo[end])
+                end = x;
+        }
+        int[] seam = new int[height];
+        seam[height - 1] = end;
+        int rowBytes = edgeBytes(width);
+        for (int top = (height - 1) - (height - 1) % stripHeight; top >= 0; top -= stripHeight) {
+            int rows = Math.min(stripHeight, height - top);
+            edgeStrip.clear();
+            edgeStrip.limit(rows * rowBytes);
+            readFully(edges, edgeStrip, (long) top * rowBytes);
+            for (int y = top + rows - 1; y >= Math.max(top, 1); y--) {
+                int x = seam[y];
+                int bits = (edgeStrip.get((y - top) * rowBytes + x / 4) >> (2 * (x % 4))) & 3;
+                seam[y - 1] = x + bits - 1;
+            }
+        }
+        edgeStrip.clear();
+        return seam;
+    }
+
+    private static int edgeBytes(int width) {
+        return (width + 3) / 4;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("unexpected end of scratch file");
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    // minimal streaming PNG decoder for non-interlaced 8-bit rgb, rgba and palette images; gray
+    // images are left to ImageIO, which maps them through a linear gray color space
+    private static class PngStripReader implements AutoCloseable {
+        private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+        private final DataInputStream file;
+        private final int width;
+        private final int height;
+        private final int colorType;
+        // bytes per pixel
+        private final int bpp;
+        private int[] palette;
+        private final InflaterInputStream idat;
+        private byte[] prior;
+        private byte[] current;
+
+        private PngStripReader(DataInputStream file, int width, int height, int colorType) throws IOException {
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.colorType = colorType;
+            this.bpp = colorType == 3 ? 1 : colorType == 2 ? 3 : 4;
+            this.prior = new byte[width * bpp];
+            this.current = new byte[width * bpp];
+            // read chunks up to the first IDAT, then feed the inflater chunk by chunk
+            int length = nextChunk("IDAT");
+            this.idat = new InflaterInputStream(new IdatStream(length));
+        }
+
+        // a reader positioned at the first row, or null if the file is not a png this class decodes
+        static PngStripReader open(File input) throws IOException {
+            DataInputStream file = new DataInputStream(new BufferedInputStream(new FileInputStream(input)));
+            try {
+                byte[] signature = new byte[SIGNATURE.length];
+                file.readFully(signature);
+                if (!Arrays.equals(signature, SIGNATURE) || file.readInt() != 13 || file.readInt() != 0x49484452) {
+                    file.close();
+                    return null;
+                }
+                int width = file.readInt();
+                int height = file.readInt();
+                int bitDepth = file.readUnsignedByte();
+                int colorType = file.readUnsignedByte();
+                file.readUnsignedByte();
+                file.readUnsignedByte();
+                int interlace = file.readUnsignedByte();
+                file.readInt();
+                if (bitDepth != 8 || interlace != 0 || (colorType != 2 && colorType != 3 && colorType != 6)) {
+                    file.close();
+                    return null;
+                }
+                return new PngStripReader(file, width, height, colorType);
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        // skip chunks until one of the given type, keeping the palette; returns its length
+        private int nextChunk(String type) throws IOException {
+            while (true) {
+                int length = file.readInt();
+                byte[] name = new byte[4];
+                file.readFully(name);
+                String chunk = new String(name, "US-ASCII");
+                if (chunk.equals(type))
+                    return length;
+                if (chunk.equals("IEND"))
+                    throw new IOException("png has no " + type + " chunk");
+                if (chunk.equals("PLTE")) {
+                    palette = new int[length / 3];
+                    for (int i = 0; i < palette.length; i++)
+                        palette[i] = file.readUnsignedByte() << 16 | file.readUnsignedByte() << 8 | file.readUnsignedByte();
+                    file.skipBytes(length - 3 * palette.length);
+                } else {
+                    file.skipBytes(length);
+                }
+                // crc
+                file.readInt();
+            }
+        }
+
+        // decode the next row as packed rgb values into dst starting at offset
+        void readRow(int[] dst, int offset) throws IOException {
+            int filter = idat.read();
+            if (filter < 0)
+                throw new IOException("png image data ends early");
+            readFully(idat, current);
+            unfilter(filter);
+            for (int x = 0; x < width; x++) {
+                int i = x * bpp;
+                int rgb;
+                if (colorType == 3) {
+                    rgb = palette[current[i] & 0xFF];
+                } else {
+                    rgb = (current[i] & 0xFF) << 16 | (current[i + 1] & 0xFF) << 8 | (current[i + 2] & 0xFF);
+                }
+                dst[offset + x] = rgb;
+            }
+            byte[] temp = prior;
+            prior = current;
+            current = temp;
+        }
+
+        // undo the png row filter against the previous row
+        private void unfilter(int filter) throws IOException {
+            int n = current.length;
+            for (int i = 0; i < n; i++) {
+                int a = i >= bpp ? current[i - bpp] & 0xFF : 0;
+                int b = prior[i] & 0xFF;
+                int c = i >= bpp ? prior[i - bpp] & 0xFF : 0;
+                int predictor;
+                switch (filter) {
+                    case 0: predictor = 0; break;
+                    case 1: predictor = a; break;
+                    case 2: predictor = b; break;
+                    case 3: predictor = (a + b) >>> 1; break;
+                    case 4: predictor = paeth(a, b, c); break;
+                    default: throw new IOException("unknown png filter " + filter);
+                }
+                current[i] = (byte) (current[i] + predictor);
+            }
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc)
+                return a;
+            return pb <= pc ? b : c;
+        }
+
+        private static void readFully(InputStream in, byte[] dst) throws IOException {
+            int n = 0;
+            while (n < dst.length) {
+                int read = in.read(dst, n, dst.length - n);
+                if (read < 0)
+                    throw new IOException("png image data ends early");
+                n += read;
+            }
+        }
+
+        public void close() throws IOException {
+            file.close();
+        }
+
+        // the data of consecutive IDAT chunks as one stream
+        private class IdatStream extends InputStream {
+            private int remaining;
+
+            IdatStream(int length) {
+                remaining = length;
+            }
+
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (remaining == 0) {
+                    // crc of the finished chunk, then the next one must be IDAT as well
+                    file.readInt();
+                    int length = file.readInt();
+                    byte[] name = new byte[4];
+                    file.readFully(name);
+                    if (!new String(name, "US-ASCII").equals("IDAT"))
+                        return -1;
+                    remaining = length;
+                }
+                int read = file.read(b, off, Math.min(len, remaining));
+                if (read > 0)
+                    remaining -= read;
+                return read;
+            }
+        }
+    }
+
+    // minimal streaming PNG encoder: 8-bit RGB, no filtering, IDAT chunks of up to 64KB
+    private static class PngStripWriter implements AutoCloseable {
+        private static final int CHUNK = 1 << 16;
+
+        private final DataOutputStream file;
+        private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK);
+        private final DeflaterOutputStream deflater;
+        private final byte[] line;
+
+        PngStripWriter(File output, int width, int height) throws IOException {
+            file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+            file.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(header);
+            data.writeInt(width);
+            data.writeInt(height);
+            // bit depth 8, color type rgb, deflate, no filter, no interlace
+            data.write(new byte[] { 8, 2, 0, 0, 0 });
+            writeChunk("IHDR", header.toByteArray(), header.size());
+            line = new byte[1 + 3 * width];
+            deflater = new DeflaterOutputStream(new OutputStream() {
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                public void write(byte[] b, int off, int len) throws IOException {
+                    chunk.write(b, off, len);
+                    if (chunk.size() >= CHUNK)
+                        flushChunk();
+                }
+            }, new Deflater(Deflater.DEFAULT_COMPRESSION), CHUNK);
+        }
+
+        void writeRow(int[] row, int width) throws IOException {
+            // filter type 0, then the red, green and blue bytes of every pixel
+            line[0] = 0;
+            for (int x = 0; x < width; x++) {
+                line[1 + 3 * x] = (byte) (row[x] >> 16);
+                line[2 + 3 * x] = (byte) (row[x] >> 8);
+                line[3 + 3 * x] = (byte) row[x];
+            }
+            deflater.write(line, 0, 1 + 3 * width);
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunk.size() > 0)
+                writeChunk("IDAT", chunk.toByteArray(), chunk.size());
+            chunk.reset();
+        }
+
+        private void writeChunk(String type, byte[] data, int length) throws IOException {
+            byte[] name = type.getBytes("US-ASCII");
+            CRC32 crc = new CRC32();
+            crc.update(name);
+            crc.update(data, 0, length);
+            file.writeInt(length);
+            file.write(name);
+            file.write(data, 0, length);
+            file.writeInt((int) crc.getValue());
+        }
+
+        public void close() throws IOException {
+            try {
+                deflater.finish();
+                flushChunk();
+                writeChunk("IEND", new byte[0], 0);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            StdOut.println("Usage:\njava StreamingCarver [input] [output.png] [num cols to remove] [strip height]");
+            return;
+        }
+        int stripHeight = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        StreamingCarver carver = new StreamingCarver(new File(System.getProperty("java.io.tmpdir")), stripHeight);
+        Stopwatch sw = new Stopwatch();
+        carver.carve(new File(args[0]), new File(args[1]), Integer.parseInt(args[2]));
+        StdOut.println("Carving time: " + sw.elapsedTime() + " seconds.");
+    }
+
+}
@@ -0,0 +1,117 @@
+/******************************************************************************
+ *  Compilation:  javac BandedSearchTest.java
+ *  Execution:    mvn test -Dtest=BandedSearchTest
+ *  Dependencies: SeamCarver.java TestPictures.java
+ *
+ *  A corridor seam is only taken while its energy is within (1 + tolerance)
+ *  of the seam the last full search found in that direction, every other
+ *  search is the exact one, and the corridor counters add up to the
+ *  corridor searches made. Band 0 is the exact search throughout.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BandedSearchTest {
+
+    @Test
+    public void corridorSeamsStayWithinTheTolerance() {
+        Random random = new Random(21);
+        double[] tolerances = { 0, 0.05, 0.5 };
+        for (double tolerance : tolerances) {
+            int width = 30 + random.nextInt(30);
+            int height = 30 + random.nextInt(30);
+            int[] argb = TestPictures.argb(random, width, height);
+            SeamCarver carver = new SeamCarver(argb, width, height);
+            carver.setBandedSearch(3, tolerance);
+            // energy of the seam the last full search found, vertical and horizontal
+            double[] bound = { -1, -1 };
+            int searches = 16;
+            for (int s = 0; s < searches; s++) {
+                // alternating, so the incremental tables never stand in for the corridor
+                boolean vertical = s % 2 == 0;
+                String message = "tolerance " + tolerance + " seam " + s;
+                SeamCarver exact = new SeamCarver(carver.argb(), carver.width(), carver.height());
+                int[] expected = vertical ? exact.findVerticalSeam() : exact.findHorizontalSeam();
+                long banded = carver.bandedSeams();
+                int[] seam = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+                double energy = energy(carver, seam, vertical);
+                int d = vertical ? 0 : 1;
+                if (carver.bandedSeams() > banded) {
+                    assertTrue(message + ": " + energy + " over " + bound[d],
+                            energy <= bound[d] * (1 + tolerance) + 1e-9);
+                } else {
+                    // no guide yet, or the corridor seam cost too much: the full search
+                    assertArrayEquals(message, expected, seam);
+                    bound[d] = energy;
+                }
+                if (vertical)
+                    carver.removeVerticalSeam(seam);
+                else
+                    carver.removeHorizontalSeam(seam);
+            }
+            // every search but the first in each direction had a corridor to try
+            assertEquals("tolerance " + tolerance, searches - 2, carver.bandedSeams() + carver.bandFallbacks());
+            if (tolerance > 0.1)
+                assertTrue("tolerance " + tolerance + ": no corridor seam taken", carver.bandedSeams() > 0);
+        }
+    }
+
+    @Test
+    public void bandZeroIsTheExactSearch() {
+        Random random = new Random(22);
+        int[] argb = TestPictures.argb(random, 40, 30);
+        SeamCarver carver = new SeamCarver(argb, 40, 30);
+        SeamCarver exact = new SeamCarver(argb, 40, 30);
+        carver.setBandedSearch(3, 0.5);
+        carver.setBandedSearch(0, 0);
+        for (int s = 0; s < 10; s++) {
+            boolean vertical = s % 2 == 0;
+            int[] expected = vertical ? exact.findVerticalSeam() : exact.findHorizontalSeam();
+            int[] seam = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+            assertArrayEquals("seam " + s, expected, seam);
+            if (vertical) {
+                exact.removeVerticalSeam(expected);
+                carver.removeVerticalSeam(seam);
+            } else {
+                exact.removeHorizontalSeam(expected);
+                carver.removeHorizontalSeam(seam);
+            }
+        }
+        assertEquals(0, carver.bandedSeams());
+        assertEquals(0, carver.bandFallbacks());
+    }
+
+    @Test
+    public void zeroToleranceFallsBackOnCostlierCorridors() {
+        Random random = new Random(23);
+        int[] argb = TestPictures.argb(random, 50, 40);
+        SeamCarver carver = new SeamCarver(argb, 50, 40);
+        // a corridor of one position either side rarely holds a seam as cheap as the full one
+        carver.setBandedSearch(1, 0);
+        for (int s = 0; s < 20; s++) {
+            boolean vertical = s % 2 == 0;
+            int[] seam = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+            if (vertical)
+                carver.removeVerticalSeam(seam);
+            else
+                carver.removeHorizontalSeam(seam);
+        }
+        assertTrue(carver.bandFallbacks() > 0);
+        assertEquals(18, carver.bandedSeams() + carver.bandFallbacks());
+    }
+
+    private static double energy(SeamCarver carver, int[] seam, boolean vertical) {
+        double total = 0;
+        for (int i = 0; i < seam.length; i++)
+            total += vertical ? carver.energy(seam[i], i) : carver.energy(i, seam[i]);
+        return total;
+    }
+
+}
@@ -0,0 +1,96 @@
+/******************************************************************************
+ *  Compilation:  javac BatchCarverTest.java
+ *  Execution:    mvn test -Dtest=BatchCarverTest
+ *  Dependencies: BatchCarver.java SeamCarver.java TestPictures.java
+ *
+ *  A failing job is recorded in the report and the batch carries on with
+ *  the others, also when the budget admits only one job at a time.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class BatchCarverTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test(timeout = 60000)
+    public void failingJobsAreReportedAndTheOthersCarved() throws Exception {
+        check(new BatchCarver(3, 1L << 30));
+    }
+
+    @Test(timeout = 60000)
+    public void aBudgetOfOneJobStillCarriesOn() throws Exception {
+        // smaller than every job, so they are admitted one at a time
+        check(new BatchCarver(2, 1024));
+    }
+
+    private void check(BatchCarver carver) throws Exception {
+        File input = scratch.newFolder();
+        Random random = new Random(15);
+        image(random, new File(input, "a.png"), 30, 20);
+        image(random, new File(input, "c.png"), 25, 25);
+        image(random, new File(input, "d.png"), 20, 30);
+        try (FileOutputStream out = new FileOutputStream(new File(input, "b.png"))) {
+            out.write("not a png".getBytes(StandardCharsets.US_ASCII));
+        }
+        File manifest = new File(input, "jobs.txt");
+        try (PrintWriter out = new PrintWriter(manifest, "UTF-8")) {
+            out.println("# image columns rows");
+            out.println("a.png 5 4");
+            // not an image, fails before it is admitted
+            out.println("b.png 1 1");
+            // more columns than the image has, fails while carving
+            out.println("c.png 25 0");
+            out.println("missing.png 1 1");
+            out.println("d.png 2 6");
+        }
+        List<BatchCarver.Job> jobs = BatchCarver.manifest(manifest);
+        assertEquals(5, jobs.size());
+        File output = scratch.newFolder();
+        carver.carve(jobs, output);
+
+        Picture a = new Picture(new File(output, "a.png"));
+        assertEquals(25, a.width());
+        assertEquals(16, a.height());
+        Picture d = new Picture(new File(output, "d.png"));
+        assertEquals(18, d.width());
+        assertEquals(24, d.height());
+        assertFalse(new File(output, "c.png").exists());
+
+        List<String> report = Files.readAllLines(new File(output, "report.csv").toPath(), StandardCharsets.UTF_8);
+        assertEquals(6, report.size());
+        String[] names = { "a.png", "b.png", "c.png", "missing.png", "d.png" };
+        boolean[] failed = { false, true, true, true, false };
+        for (int n = 0; n < names.length; n++) {
+            String line = report.get(n + 1);
+            String[] fields = line.split(",", -1);
+            assertTrue(line, fields[0].endsWith(names[n]));
+            assertEquals(line, failed[n], !fields[8].isEmpty());
+        }
+        assertTrue(report.get(1), report.get(1).contains(",25,16,"));
+    }
+
+    private static void image(Random random, File file, int width, int height) throws IOException {
+        TestPictures.picture(TestPictures.argb(random, width, height), width, height).save(file);
+    }
+
+}
@@ -0,0 +1,83 @@
+/******************************************************************************
+ *  Compilation:  javac BatchedSeamsTest.java
+ *  Execution:    mvn test -Dtest=BatchedSeamsTest
+ *  Dependencies: SeamCarver.java SeamLog.java TestPictures.java
+ *
+ *  Removing batches of pixel-disjoint seams leaves the same picture as
+ *  removing the seams it logged one by one with the exact carver, and
+ *  batch 1 is the exact greedy carve.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class BatchedSeamsTest {
+
+    @Test
+    public void batchesMatchTheirSeamsRemovedOneByOne() {
+        Random random = new Random(9);
+        for (int n = 0; n < 10; n++) {
+            int width = 20 + random.nextInt(40);
+            int height = 20 + random.nextInt(40);
+            boolean vertical = n % 2 == 0;
+            int k = 1 + random.nextInt((vertical ? width : height) / 2);
+            int batch = 2 + random.nextInt(6);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver batched = new SeamCarver(picture);
+            batched.setHistory(true);
+            SeamCarver exact = new SeamCarver(picture);
+            // the cheapest seam of the first batch is the one the exact carver finds
+            int[] first = vertical ? exact.findVerticalSeam() : exact.findHorizontalSeam();
+            if (vertical)
+                batched.removeVerticalSeams(k, batch);
+            else
+                batched.removeHorizontalSeams(k, batch);
+
+            SeamLog log = batched.history();
+            assertEquals("case " + n + ": logged seams", k, log.size());
+            assertArrayEquals("case " + n + ": first seam", first, log.seam(0));
+            for (int i = 0; i < log.size(); i++) {
+                if (log.isVertical(i))
+                    exact.removeVerticalSeam(log.seam(i));
+                else
+                    exact.removeHorizontalSeam(log.seam(i));
+            }
+            TestPictures.assertSameCarver("case " + n, exact, batched);
+        }
+    }
+
+    @Test
+    public void batchOfOneIsTheExactCarve() {
+        Random random = new Random(10);
+        for (int n = 0; n < 6; n++) {
+            int width = 20 + random.nextInt(40);
+            int height = 20 + random.nextInt(40);
+            boolean vertical = n % 2 == 0;
+            int k = 1 + random.nextInt((vertical ? width : height) / 2);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver batched = new SeamCarver(picture);
+            SeamCarver exact = new SeamCarver(picture);
+            double energy = 0;
+            for (int i = 0; i < k; i++) {
+                int[] seam = vertical ? exact.findVerticalSeam() : exact.findHorizontalSeam();
+                for (int step = 0; step < seam.length; step++)
+                    energy += vertical ? exact.energy(seam[step], step) : exact.energy(step, seam[step]);
+                if (vertical)
+                    exact.removeVerticalSeam(seam);
+                else
+                    exact.removeHorizontalSeam(seam);
+            }
+            double total = vertical ? batched.removeVerticalSeams(k, 1) : batched.removeHorizontalSeams(k, 1);
+            assertEquals("case " + n + ": energy", energy, total, 1e-6);
+            TestPictures.assertSameCarver("case " + n, exact, batched);
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/******************************************************************************
+ *  Compilation:  javac CarveServerTest.java
+ *  Execution:    mvn test -Dtest=CarveServerTest
+ *  Dependencies: CarveServer.java SeamCarver.java TestPictures.java
+ *
+ *  The endpoints over loopback HTTP: a session resized smaller and then
+ *  larger again gives the pictures of a fresh carver, uploads over the
+ *  session limit get 413, the least recently used session is dropped past
+ *  the budget, and a request past the workers and the queue gets 503.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CarveServerTest {
+
+    private static final Pattern ID = Pattern.compile("\"id\": \"([^\"]+)\"");
+
+    private CarveServer server;
+
+    @After
+    public void stop() {
+        if (server != null)
+            server.stop(0);
+    }
+
+    @Test(timeout = 30000)
+    public void resizesGoOnFromTheCurrentSize() throws Exception {
+        start(2, 4, 1L << 20, 1L << 22);
+        Random random = new Random(25);
+        int[] argb = TestPictures.argb(random, 40, 30);
+        Response created = request("POST", "/sessions", png(argb, 40, 30));
+        assertEquals(201, created.status);
+        String id = id(created);
+        assertTrue(created.body(), created.body().contains("\"width\": 40, \"height\": 30"));
+
+        // smaller, then larger again, which undoes seams the first resize removed
+        int[][] sizes = { { 30, 25 }, { 36, 28 }, { 40, 30 }, { 25, 30 } };
+        for (int[] size : sizes) {
+            String message = size[0] + "x" + size[1];
+            Response resized = request("GET", "/sessions/" + id + "/image?width=" + size[0] + "&height=" + size[1], null);
+            assertEquals(message, 200, resized.status);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(resized.body));
+            assertEquals(message, size[0], image.getWidth());
+            assertEquals(message, size[1], image.getHeight());
+            SeamCarver fresh = new SeamCarver(argb, 40, 30);
+            fresh.resizeTo(size[0], size[1]);
+            assertArrayEquals(message, fresh.argb(), image.getRGB(0, 0, size[0], size[1], null, 0, size[0]));
+        }
+
+        assertEquals(400, request("GET", "/sessions/" + id + "/image?width=41&height=30", null).status);
+        assertEquals(405, request("PUT", "/sessions/" + id, null).status);
+        assertEquals(204, request("DELETE", "/sessions/" + id, null).status);
+        assertEquals(404, request("DELETE", "/sessions/" + id, null).status);
+        assertEquals(404, request("GET", "/sessions/" + id + "/image", null).status);
+        assertEquals(0, server.sessions());
+    }
+
+    @Test(timeout = 30000)
+    public void uploadsThatAreNoImagesAreRefused() throws Exception {
+        start(2, 4, 1L << 20, 1L << 22);
+        assertEquals(415, request("POST", "/sessions", "not an image".getBytes(StandardCharsets.UTF_8)).status);
+        assertEquals(0, server.sessions());
+    }
+
+    @Test(timeout = 30000)
+    public void uploadsOverTheSessionLimitAreRefused() throws Exception {
+        // 600 pixels of 25 estimated bytes each, carver and history, are 15000 bytes
+        start(2, 4, 14999, 1L << 20);
+        Random random = new Random(26);
+        assertEquals(413, request("POST", "/sessions", png(TestPictures.argb(random, 30, 20), 30, 20)).status);
+        assertEquals(201, request("POST", "/sessions", png(TestPictures.argb(random, 29, 20), 29, 20)).status);
+        assertEquals(1, server.sessions());
+        assertTrue(server.metricsJson(), server.metricsJson().contains("\"tooLarge\": 1,"));
+    }
+
+    @Test(timeout = 30000)
+    public void leastRecentlyUsedSessionsAreDroppedPastTheBudget() throws Exception {
+        // room for two sessions of 15000 estimated bytes
+        start(2, 4, 15000, 30000);
+        Random random = new Random(27);
+        String[] ids = new String[3];
+        for (int i = 0; i < 2; i++)
+            ids[i] = id(request("POST", "/sessions", png(TestPictures.argb(random, 30, 20), 30, 20)));
+        // the first session is used again, so the second one is the eldest
+        assertEquals(200, request("GET", "/sessions/" + ids[0] + "/image?width=29&height=20", null).status);
+        ids[2] = id(request("POST", "/sessions", png(TestPictures.argb(random, 30, 20), 30, 20)));
+
+        assertEquals(2, server.sessions());
+        assertEquals(404, request("GET", "/sessions/" + ids[1] + "/image", null).status);
+        assertEquals(200, request("GET", "/sessions/" + ids[0] + "/image", null).status);
+        assertEquals(200, request("GET", "/sessions/" + ids[2] + "/image", null).status);
+        assertTrue(server.metricsJson(), server.metricsJson().contains("\"evictions\": 1\n"));
+    }
+
+    @Test(timeout = 30000)
+    public void requestsPastTheQueueGetServiceUnavailable() throws Exception {
+        start(1, 0, 1L << 20, 1L << 22);
+        // an upload whose body never arrives holds the only worker once it is admitted; if the
+        // probe came in first, the upload got the 503 instead and is held again
+        Response busy = null;
+        for (int i = 0; (busy == null || busy.status != 503) && i < 20; i++) {
+            try (Socket held = new Socket("127.0.0.1", server.port())) {
+                OutputStream out = held.getOutputStream();
+                out.write(("POST /sessions HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 100000\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(100);
+                busy = request("GET", "/sessions/none/image", null);
+            }
+        }
+        assertEquals(503, busy.status);
+        assertTrue(server.metricsJson(), !server.metricsJson().contains("\"rejected\": 0,"));
+        // the worker is free again once the held upload fails
+        Response free = request("GET", "/sessions/none/image", null);
+        for (int i = 0; free.status == 503 && i < 100; i++) {
+            Thread.sleep(50);
+            free = request("GET", "/sessions/none/image", null);
+        }
+        assertEquals(404, free.status);
+    }
+
+    private void start(int workers, int queue, long sessionLimit, long budget) throws IOException {
+        server = new CarveServer(0, workers, queue, sessionLimit, budget);
+        server.start();
+    }
+
+    private Response request(String method, String path, byte[] body) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.port() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            return new Response(status, in == null ? new byte[0] : readAll(in));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String id(Response created) {
+        Matcher matcher = ID.matcher(created.body());
+        assertTrue(created.body(), matcher.find());
+        return matcher.group(1);
+    }
+
+    private static byte[] png(int[] argb, int width, int height) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(TestPictures.image(argb, width, height), "png", png);
+        return png.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = stream.read(buffer); n >= 0; n = stream.read(buffer))
+                res.write(buffer, 0, n);
+            return res.toByteArray();
+        }
+    }
+
+    private static class Response {
+        private final int status;
+        private final byte[] body;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        String body() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+}
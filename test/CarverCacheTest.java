@@ -0,0 +1,90 @@
+/******************************************************************************
+ *  Compilation:  javac CarverCacheTest.java
+ *  Execution:    mvn test -Dtest=CarverCacheTest
+ *  Dependencies: CarverCache.java SeamCarver.java TestPictures.java
+ *
+ *  A request served from a checkpoint or a cached picture gives the same
+ *  picture as a cold carve, eviction keeps the cache within its budget
+ *  least recently used first, and the counters add up.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class CarverCacheTest {
+
+    @Test
+    public void cachedResultsMatchAColdCarve() {
+        Random random = new Random(17);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 40, 30), 40, 30);
+        CarverCache cache = new CarverCache(1L << 30);
+        int[][] sizes = { { 35, 30 }, { 30, 26 }, { 30, 22 }, { 35, 30 }, { 28, 30 } };
+        for (int[] size : sizes) {
+            SeamCarver cold = new SeamCarver(picture);
+            cold.resizeTo(size[0], size[1]);
+            Picture cached = cache.resize(picture, size[0], size[1]);
+            assertArrayEquals(size[0] + "x" + size[1], cold.argb(), argb(cached));
+        }
+        // 35x30 from the source, 30x26 from the 35x30 checkpoint, 30x22 from 30x26 and 28x30
+        // from the 30x30 one on the way to 30x26; 35x30 again as a finished picture
+        assertEquals(1, cache.misses());
+        assertEquals(3, cache.checkpointHits());
+        assertEquals(1, cache.hits());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test
+    public void evictionKeepsTheBudgetLeastRecentlyUsedFirst() {
+        Random random = new Random(18);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 30, 20), 30, 20);
+        // a 25x20 checkpoint (12 bytes a pixel) and picture (4 bytes a pixel) fit, 8000 bytes
+        CarverCache cache = new CarverCache(10000);
+        cache.resize(picture, 25, 20);
+        assertEquals(8000, cache.bytes());
+        assertEquals(0, cache.evictions());
+        // continues from the 25x20 checkpoint, which is touched; its 20x20 checkpoint of 4800
+        // bytes pushes out the 25x20 picture, then the checkpoint, before its picture is added
+        cache.resize(picture, 20, 20);
+        assertEquals(1, cache.checkpointHits());
+        assertEquals(2, cache.evictions());
+        assertEquals(4800 + 1600, cache.bytes());
+        // the 20x20 picture is still there, the 25x20 one is not
+        cache.resize(picture, 20, 20);
+        assertEquals(1, cache.hits());
+        cache.resize(picture, 25, 20);
+        assertEquals(2, cache.misses());
+        assertTrue(cache.bytes() <= 10000);
+        assertEquals(4, cache.hits() + cache.checkpointHits() + cache.misses());
+    }
+
+    @Test
+    public void entriesLargerThanTheBudgetAreNotKept() {
+        Random random = new Random(19);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 30, 20), 30, 20);
+        CarverCache cache = new CarverCache(1000);
+        cache.resize(picture, 25, 20);
+        cache.resize(picture, 25, 20);
+        assertEquals(0, cache.bytes());
+        assertEquals(2, cache.misses());
+        assertEquals(0, cache.hits());
+        assertEquals(0, cache.evictions());
+    }
+
+    private static int[] argb(Picture picture) {
+        int[] argb = new int[picture.width() * picture.height()];
+        for (int row = 0; row < picture.height(); row++) {
+            for (int col = 0; col < picture.width(); col++)
+                argb[row * picture.width() + col] = picture.getRGB(col, row);
+        }
+        return argb;
+    }
+
+}
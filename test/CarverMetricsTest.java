@@ -0,0 +1,80 @@
+/******************************************************************************
+ *  Compilation:  javac CarverMetricsTest.java
+ *  Execution:    mvn test -Dtest=CarverMetricsTest
+ *  Dependencies: CarverMetrics.java SeamCarver.java TestPictures.java
+ *
+ *  A phase begun inside another one pauses it, so no time is charged
+ *  twice: the phases of a run add up to no more than its wall time.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CarverMetricsTest {
+
+    private static final long MILLIS = 1000000;
+
+    @Test
+    public void nestedPhasePausesTheEnclosingOne() throws Exception {
+        CarverMetrics metrics = new CarverMetrics();
+        long start = System.nanoTime();
+        metrics.begin(CarverMetrics.Phase.SEAM_SEARCH);
+        Thread.sleep(30);
+        metrics.begin(CarverMetrics.Phase.TRANSPOSE);
+        Thread.sleep(50);
+        metrics.end();
+        Thread.sleep(30);
+        metrics.end();
+        long wall = System.nanoTime() - start;
+
+        long search = metrics.nanos(CarverMetrics.Phase.SEAM_SEARCH);
+        long transpose = metrics.nanos(CarverMetrics.Phase.TRANSPOSE);
+        assertTrue("transpose " + transpose, transpose >= 50 * MILLIS);
+        assertTrue("search " + search, search >= 60 * MILLIS);
+        // the transpose was not charged to the search as well
+        assertTrue("search " + search + " transpose " + transpose + " wall " + wall, search + transpose <= wall);
+        assertEquals(search + transpose, metrics.totalNanos());
+        assertEquals(1, metrics.calls(CarverMetrics.Phase.SEAM_SEARCH));
+        assertEquals(1, metrics.calls(CarverMetrics.Phase.TRANSPOSE));
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterPhases() throws Exception {
+        CarverMetrics metrics = new CarverMetrics();
+        metrics.begin(CarverMetrics.Phase.ENERGY);
+        Thread.sleep(10);
+        metrics.end();
+        CarverMetrics snapshot = metrics.snapshot();
+        long energy = snapshot.nanos(CarverMetrics.Phase.ENERGY);
+        metrics.begin(CarverMetrics.Phase.ENERGY);
+        Thread.sleep(10);
+        metrics.end();
+        assertEquals(energy, snapshot.nanos(CarverMetrics.Phase.ENERGY));
+        assertEquals(2, metrics.calls(CarverMetrics.Phase.ENERGY));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endWithoutBeginIsRejected() {
+        new CarverMetrics().end();
+    }
+
+    @Test
+    public void carvePhasesAddUpToNoMoreThanTheCarve() {
+        Random random = new Random(19);
+        SeamCarver carver = new SeamCarver(TestPictures.argb(random, 60, 40), 60, 40);
+        carver.setMetrics(true);
+        long start = System.nanoTime();
+        carver.resizeTo(50, 32);
+        long wall = System.nanoTime() - start;
+        CarverMetrics metrics = carver.metrics();
+        assertTrue(metrics.totalNanos() + " of " + wall, metrics.totalNanos() <= wall);
+        assertTrue(metrics.calls(CarverMetrics.Phase.SEAM_SEARCH) >= 18);
+        assertTrue(metrics.pixelsRelaxed() > 0);
+    }
+
+}
@@ -0,0 +1,69 @@
+/******************************************************************************
+ *  Compilation:  javac EnergyUpdateTest.java
+ *  Execution:    mvn test -Dtest=EnergyUpdateTest
+ *  Dependencies: SeamCarver.java EnergyFunction.java TestPictures.java
+ *
+ *  After every removal the energies a carver updated only within the
+ *  stencil radius of the seam, and the seam it finds next, are those of a
+ *  fresh carver built from its pixels; for every energy function, in
+ *  double and in compact mode.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class EnergyUpdateTest {
+
+    @Test
+    public void dualGradientMatchesAFreshCarver() {
+        check(EnergyFunction.DUAL_GRADIENT, 20);
+    }
+
+    @Test
+    public void sobelMatchesAFreshCarver() {
+        check(EnergyFunction.SOBEL, 21);
+    }
+
+    @Test
+    public void forwardMatchesAFreshCarver() {
+        check(EnergyFunction.FORWARD, 22);
+    }
+
+    private static void check(EnergyFunction function, long seed) {
+        Random random = new Random(seed);
+        for (boolean compact : new boolean[] { false, true }) {
+            int width = 20 + random.nextInt(20);
+            int height = 20 + random.nextInt(20);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver carver = new SeamCarver(picture, compact);
+            carver.setEnergyFunction(function);
+            for (int s = 0; s < 16; s++) {
+                // runs in both directions, so the storage transposes between them
+                boolean vertical = (s / 3) % 2 == 0 || random.nextInt(4) == 0;
+                String message = function.getClass().getSimpleName() + (compact ? " compact" : "") + " seam " + s;
+                SeamCarver fresh = fresh(carver, function, compact);
+                TestPictures.assertSameCarver(message, fresh, carver);
+                int[] seam = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+                assertArrayEquals(message, vertical ? fresh.findVerticalSeam() : fresh.findHorizontalSeam(), seam);
+                if (vertical)
+                    carver.removeVerticalSeam(seam);
+                else
+                    carver.removeHorizontalSeam(seam);
+            }
+            TestPictures.assertSameCarver("last", fresh(carver, function, compact), carver);
+        }
+    }
+
+    private static SeamCarver fresh(SeamCarver carver, EnergyFunction function, boolean compact) {
+        SeamCarver fresh = new SeamCarver(TestPictures.picture(carver.argb(), carver.width(), carver.height()), compact);
+        fresh.setEnergyFunction(function);
+        return fresh;
+    }
+
+}
@@ -0,0 +1,85 @@
+/******************************************************************************
+ *  Compilation:  javac ImageLoaderTest.java
+ *  Execution:    mvn test -Dtest=ImageLoaderTest
+ *  Dependencies: ImageLoader.java SeamCarver.java TestPictures.java
+ *
+ *  A carver filled row strip by row strip while the image decodes holds
+ *  the pixels and energies of SeamCarver(BufferedImage) on the same
+ *  region, subsampled the same way.
+ *
+ ******************************************************************************/
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageLoaderTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    private final ImageLoader loader = new ImageLoader(2);
+
+    @After
+    public void close() {
+        loader.close();
+    }
+
+    @Test
+    public void rgbPngMatchesTheBufferedImageCarver() throws Exception {
+        check(BufferedImage.TYPE_INT_RGB, "png", 23);
+    }
+
+    @Test
+    public void argbPngMatchesTheBufferedImageCarver() throws Exception {
+        check(BufferedImage.TYPE_INT_ARGB, "png", 24);
+    }
+
+    @Test
+    public void bmpMatchesTheBufferedImageCarver() throws Exception {
+        check(BufferedImage.TYPE_INT_RGB, "bmp", 25);
+    }
+
+    // images taller than a strip, whole and by region, subsampled 1 to 3 times
+    private void check(int type, String format, long seed) throws Exception {
+        Random random = new Random(seed);
+        int width = 150 + random.nextInt(50);
+        int height = 150 + random.nextInt(50);
+        BufferedImage image = new BufferedImage(width, height, type);
+        image.setRGB(0, 0, width, height, TestPictures.argb(random, width, height), 0, width);
+        File file = scratch.newFile("image." + format);
+        ImageIO.write(image, format, file);
+        BufferedImage decoded = ImageIO.read(file);
+        Rectangle[] regions = { null, new Rectangle(11, 7, width - 30, height - 20) };
+        for (Rectangle region : regions) {
+            for (int subsampling = 1; subsampling <= 3; subsampling++) {
+                String message = format + " region " + region + " subsampling " + subsampling;
+                SeamCarver expected = new SeamCarver(subsample(decoded, region, subsampling, type));
+                TestPictures.assertSameCarver(message, expected, loader.load(file, region, subsampling));
+            }
+        }
+    }
+
+    // the first pixel of the region and every subsampling-th one after it, in both directions
+    private static BufferedImage subsample(BufferedImage image, Rectangle region, int subsampling, int type) {
+        if (region == null)
+            region = new Rectangle(image.getWidth(), image.getHeight());
+        int width = (region.width + subsampling - 1) / subsampling;
+        int height = (region.height + subsampling - 1) / subsampling;
+        BufferedImage res = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++)
+                res.setRGB(x, y, image.getRGB(region.x + x * subsampling, region.y + y * subsampling));
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,64 @@
+/******************************************************************************
+ *  Compilation:  javac IncrementalTablesTest.java
+ *  Execution:    mvn test -Dtest=IncrementalTablesTest
+ *  Dependencies: SeamCarver.java TestPictures.java
+ *
+ *  Seams found with the DP tables updated after every removal are the
+ *  seams a fresh carver of the same pixels finds with a full DP pass.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IncrementalTablesTest {
+
+    @Test
+    public void foundSeamsMatchAFreshCarver() {
+        check(false, 3);
+    }
+
+    @Test
+    public void compactSeamsMatchAFreshCompactCarver() {
+        check(true, 4);
+    }
+
+    // removals of found seams, mostly in one direction so the tables stay valid, with now and
+    // then a seam that is not the found one, in either direction
+    private static void check(boolean compact, long seed) {
+        Random random = new Random(seed);
+        for (int n = 0; n < 20; n++) {
+            int width = 2 + random.nextInt(40);
+            int height = 2 + random.nextInt(40);
+            int[] argb = TestPictures.argb(random, width, height);
+            SeamCarver carver = new SeamCarver(TestPictures.picture(argb, width, height), compact);
+            boolean vertical = random.nextBoolean();
+            while (carver.width() > 1 && carver.height() > 1) {
+                if (random.nextInt(8) == 0)
+                    vertical = !vertical;
+                SeamCarver fresh = new SeamCarver(
+                        TestPictures.picture(carver.argb(), carver.width(), carver.height()), compact);
+                int[] expected = vertical ? fresh.findVerticalSeam() : fresh.findHorizontalSeam();
+                int[] seam = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+                assertArrayEquals("case " + n + " at " + carver.width() + "x" + carver.height(), expected, seam);
+                if (random.nextInt(6) == 0)
+                    seam = straightSeam(seam.length, random.nextInt(vertical ? carver.width() : carver.height()));
+                if (vertical)
+                    carver.removeVerticalSeam(seam);
+                else
+                    carver.removeHorizontalSeam(seam);
+            }
+        }
+    }
+
+    private static int[] straightSeam(int length, int position) {
+        int[] seam = new int[length];
+        Arrays.fill(seam, position);
+        return seam;
+    }
+
+}
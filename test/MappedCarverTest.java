@@ -0,0 +1,108 @@
+/******************************************************************************
+ *  Compilation:  javac MappedCarverTest.java
+ *  Execution:    mvn test -Dtest=MappedCarverTest
+ *  Dependencies: SeamCarver.java MappedStorage.java TestPictures.java
+ *
+ *  A carver over a memory-mapped scratch file, whose seam DP runs over two
+ *  rolling rows with the edges in the file, finds the same seams and
+ *  leaves the same picture as the heap carver.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class MappedCarverTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test
+    public void sameSeamsAsTheHeapCarver() throws Exception {
+        Random random = new Random(6);
+        for (int n = 0; n < 5; n++) {
+            int width = 20 + random.nextInt(40);
+            int height = 20 + random.nextInt(40);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver expected = new SeamCarver(picture);
+            SeamCarver actual = new SeamCarver(picture, scratch.newFolder());
+            for (int s = 0; s < 15; s++) {
+                // runs in one direction, so the mapped storage transposes now and then
+                boolean vertical = (s / 4) % 2 == 0;
+                String message = "case " + n + " seam " + s;
+                if (vertical && expected.width() > 1) {
+                    int[] seam = expected.findVerticalSeam();
+                    assertArrayEquals(message, seam, actual.findVerticalSeam());
+                    expected.removeVerticalSeam(seam);
+                    actual.removeVerticalSeam(seam);
+                } else if (!vertical && expected.height() > 1) {
+                    int[] seam = expected.findHorizontalSeam();
+                    assertArrayEquals(message, seam, actual.findHorizontalSeam());
+                    expected.removeHorizontalSeam(seam);
+                    actual.removeHorizontalSeam(seam);
+                }
+            }
+            TestPictures.assertSameCarver("case " + n, expected, actual);
+            actual.close();
+        }
+    }
+
+    @Test
+    public void sameBatchesAndEnlargementsAsTheHeapCarver() throws Exception {
+        Random random = new Random(7);
+        for (int n = 0; n < 5; n++) {
+            int width = 20 + random.nextInt(40);
+            int height = 20 + random.nextInt(40);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver expected = new SeamCarver(picture);
+            SeamCarver actual = new SeamCarver(picture, scratch.newFolder());
+            expected.removeVerticalSeams(5, 3);
+            actual.removeVerticalSeams(5, 3);
+            TestPictures.assertSameCarver("case " + n + " removed", expected, actual);
+            expected.insertHorizontalSeams(4);
+            actual.insertHorizontalSeams(4);
+            TestPictures.assertSameCarver("case " + n + " enlarged", expected, actual);
+            expected.insertVerticalSeams(3);
+            actual.insertVerticalSeams(3);
+            TestPictures.assertSameCarver("case " + n + " enlarged again", expected, actual);
+            actual.close();
+        }
+    }
+
+    @Test
+    public void sameOptimalOrderAsTheHeapCarver() throws Exception {
+        Random random = new Random(9);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 30, 25), 30, 25);
+        SeamCarver expected = new SeamCarver(picture);
+        SeamCarver actual = new SeamCarver(picture, scratch.newFolder());
+        assertEquals(expected.resizeToOptimal(24, 21), actual.resizeToOptimal(24, 21), 1e-9);
+        TestPictures.assertSameCarver("optimal", expected, actual);
+        actual.close();
+    }
+
+    @Test
+    public void closeReleasesTheMapping() throws Exception {
+        Random random = new Random(8);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 30, 20), 30, 20);
+        SeamCarver carver = new SeamCarver(picture, scratch.newFolder());
+        carver.removeHorizontalSeam(carver.findHorizontalSeam());
+        SeamCarver copy = new SeamCarver(carver);
+        carver.close();
+        // a copy has a mapping of its own
+        copy.removeVerticalSeam(copy.findVerticalSeam());
+        assertEquals(29, copy.width());
+        // closing twice, or a heap carver, does nothing
+        carver.close();
+        copy.close();
+        new SeamCarver(picture).close();
+    }
+
+}
@@ -0,0 +1,95 @@
+/******************************************************************************
+ *  Compilation:  javac ParallelSearchTest.java
+ *  Execution:    mvn test -Dtest=ParallelSearchTest
+ *  Dependencies: SeamCarver.java TestPictures.java
+ *
+ *  The parallel DP pass and the parallel transport map find the same seams
+ *  and the same order as the sequential ones, and carvers share their pools.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class ParallelSearchTest {
+
+    @Test
+    public void wideVerticalSeamsMatchSequential() {
+        // wide enough for chunks of the parallel pass on 3 threads
+        check(1600, 40, true);
+    }
+
+    @Test
+    public void tallHorizontalSeamsMatchSequential() {
+        check(40, 1600, false);
+    }
+
+    @Test
+    public void transportMapMatchesSequential() {
+        Random random = new Random(41);
+        for (int n = 0; n < 5; n++) {
+            int width = 8 + random.nextInt(12);
+            int height = 8 + random.nextInt(12);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver sequential = new SeamCarver(picture);
+            SeamCarver parallel = new SeamCarver(picture);
+            parallel.setParallelism(4);
+            int targetWidth = width - random.nextInt(6);
+            int targetHeight = height - random.nextInt(6);
+            assertEquals(sequential.resizeToOptimal(targetWidth, targetHeight),
+                    parallel.resizeToOptimal(targetWidth, targetHeight), 0);
+            assertArrayEquals(sequential.argb(), parallel.argb());
+        }
+    }
+
+    @Test
+    public void carversShareTheirPool() {
+        Random random = new Random(42);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 1100, 4), 1100, 4);
+        for (int n = 0; n < 20; n++) {
+            SeamCarver carver = new SeamCarver(picture);
+            carver.setParallelism(3);
+            carver.findVerticalSeam();
+        }
+        // pools are named ForkJoinPool-<pool>-worker-<worker>, the common pool differently
+        Set<String> pools = new HashSet<String>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.startsWith("ForkJoinPool-"))
+                pools.add(name.substring(0, name.indexOf("-worker")));
+        }
+        assertTrue("pools alive: " + pools, pools.size() <= 3);
+    }
+
+    private static void check(int width, int height, boolean vertical) {
+        Random random = new Random(width);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+        SeamCarver sequential = new SeamCarver(picture);
+        SeamCarver parallel = new SeamCarver(picture);
+        parallel.setParallelism(3);
+        for (int n = 0; n < 8; n++) {
+            int[] expected = vertical ? sequential.findVerticalSeam() : sequential.findHorizontalSeam();
+            assertArrayEquals("seam " + n, expected, vertical ? parallel.findVerticalSeam() : parallel.findHorizontalSeam());
+            if (vertical) {
+                sequential.removeVerticalSeam(expected);
+                parallel.removeVerticalSeam(expected);
+            } else {
+                sequential.removeHorizontalSeam(expected);
+                parallel.removeHorizontalSeam(expected);
+            }
+            // a search in the other direction, so the next one is a full pass again
+            assertArrayEquals(vertical ? sequential.findHorizontalSeam() : sequential.findVerticalSeam(),
+                    vertical ? parallel.findHorizontalSeam() : parallel.findVerticalSeam());
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/******************************************************************************
+ *  Compilation:  javac PyramidSearchTest.java
+ *  Execution:    mvn test -Dtest=PyramidSearchTest
+ *  Dependencies: SeamCarver.java TestPictures.java
+ *
+ *  The coarse-to-fine pyramid search finds valid connected seams on every
+ *  storage backend, the same ones on the heap and in a mapped scratch
+ *  file, and 0 levels is the exact search again.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class PyramidSearchTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test
+    public void pyramidSeamsAreValidOnEveryBackend() throws Exception {
+        Random random = new Random(10);
+        for (int n = 0; n < 4; n++) {
+            int width = 30 + random.nextInt(40);
+            int height = 30 + random.nextInt(40);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver heap = new SeamCarver(picture);
+            SeamCarver compact = new SeamCarver(picture, true);
+            SeamCarver mapped = new SeamCarver(picture, scratch.newFolder());
+            SeamCarver[] carvers = { heap, compact, mapped };
+            for (SeamCarver carver : carvers)
+                carver.setPyramid(2, 2);
+            for (int s = 0; s < 12; s++) {
+                boolean vertical = (s / 3) % 2 == 0;
+                String message = "case " + n + " seam " + s;
+                int[] seam = null;
+                for (SeamCarver carver : carvers) {
+                    int[] found = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+                    assertValid(message, carver, found, vertical);
+                    if (carver == heap)
+                        seam = found;
+                    else if (carver == mapped)
+                        assertArrayEquals(message + ": mapped", seam, found);
+                    if (vertical)
+                        carver.removeVerticalSeam(found);
+                    else
+                        carver.removeHorizontalSeam(found);
+                }
+            }
+            TestPictures.assertSameCarver("case " + n, heap, mapped);
+            // a whole job through the pyramid as well
+            for (SeamCarver carver : carvers) {
+                carver.resizeTo(carver.width() - 5, carver.height() - 4);
+                assertEquals("case " + n + ": width", width - 11, carver.width());
+                assertEquals("case " + n + ": height", height - 10, carver.height());
+            }
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void zeroLevelsIsTheExactSearch() {
+        Random random = new Random(11);
+        for (int n = 0; n < 4; n++) {
+            int width = 30 + random.nextInt(40);
+            int height = 30 + random.nextInt(40);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamCarver carver = new SeamCarver(picture);
+            carver.setPyramid(2, 2);
+            carver.removeVerticalSeam(carver.findVerticalSeam());
+            // back to the exact search after a pyramid seam, against a fresh exact carver
+            carver.setPyramid(0, 1);
+            SeamCarver exact = new SeamCarver(carver.argb(), carver.width(), carver.height());
+            for (int s = 0; s < 10; s++) {
+                boolean vertical = s % 3 != 2;
+                int[] expected = vertical ? exact.findVerticalSeam() : exact.findHorizontalSeam();
+                int[] actual = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+                assertArrayEquals("case " + n + " seam " + s, expected, actual);
+                if (vertical) {
+                    exact.removeVerticalSeam(expected);
+                    carver.removeVerticalSeam(actual);
+                } else {
+                    exact.removeHorizontalSeam(expected);
+                    carver.removeHorizontalSeam(actual);
+                }
+            }
+        }
+    }
+
+    // one position per step, inside the picture, each within 1 of the one before
+    private static void assertValid(String message, SeamCarver carver, int[] seam, boolean vertical) {
+        int steps = vertical ? carver.height() : carver.width();
+        int positions = vertical ? carver.width() : carver.height();
+        assertEquals(message + ": length", steps, seam.length);
+        for (int i = 0; i < steps; i++) {
+            assertTrue(message + ": position " + seam[i], seam[i] >= 0 && seam[i] < positions);
+            if (i > 0)
+                assertTrue(message + ": step " + i, Math.abs(seam[i] - seam[i - 1]) <= 1);
+        }
+    }
+
+}
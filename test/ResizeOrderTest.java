@@ -0,0 +1,61 @@
+/******************************************************************************
+ *  Compilation:  javac ResizeOrderTest.java
+ *  Execution:    mvn test -Dtest=ResizeOrderTest
+ *  Dependencies: SeamCarver.java TestPictures.java
+ *
+ *  resizeTo() gives the same picture whichever constructor built the
+ *  carver and however its pixels are laid out when it starts.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class ResizeOrderTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test
+    public void everyConstructorGivesTheSamePicture() throws Exception {
+        Random random = new Random(2);
+        for (int n = 0; n < 10; n++) {
+            int width = 20 + random.nextInt(40);
+            int height = 20 + random.nextInt(40);
+            int targetWidth = 1 + random.nextInt(width);
+            int targetHeight = 1 + random.nextInt(height);
+            int[] argb = TestPictures.argb(random, width, height);
+            Picture picture = TestPictures.picture(argb, width, height);
+
+            SeamCarver expected = new SeamCarver(picture);
+            expected.resizeTo(targetWidth, targetHeight);
+            SeamCarver[] carvers = {
+                new SeamCarver(TestPictures.image(argb, width, height)),
+                new SeamCarver(argb, width, height),
+                new SeamCarver(picture, scratch.newFolder()),
+                laidOutForRows(new SeamCarver(picture)),
+            };
+            String[] names = { "BufferedImage", "argb", "mapped", "transposed" };
+            for (int c = 0; c < carvers.length; c++) {
+                carvers[c].resizeTo(targetWidth, targetHeight);
+                assertArrayEquals(names[c] + " case " + n, expected.argb(), carvers[c].argb());
+                carvers[c].close();
+            }
+        }
+    }
+
+    // a long run of horizontal searches makes the carver transpose to serve them
+    private static SeamCarver laidOutForRows(SeamCarver carver) {
+        for (int i = 0; i < 10; i++)
+            carver.findHorizontalSeam();
+        return carver;
+    }
+
+}
@@ -0,0 +1,102 @@
+/******************************************************************************
+ *  Compilation:  javac SeamIndexTest.java
+ *  Execution:    mvn test -Dtest=SeamIndexTest
+ *  Dependencies: SeamIndex.java SeamCarver.java TestPictures.java
+ *
+ *  Retargeting with a seam index gives the picture that removing the same
+ *  number of vertical seams one by one gives, for every width down to the
+ *  minimum; a saved index loads back, and foreign files are rejected.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class SeamIndexTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test
+    public void retargetMatchesSeamsRemovedOneByOne() {
+        Random random = new Random(16);
+        for (int n = 0; n < 3; n++) {
+            int width = 20 + random.nextInt(30);
+            int height = 10 + random.nextInt(30);
+            int minWidth = 1 + random.nextInt(width / 2);
+            Picture picture = TestPictures.picture(TestPictures.argb(random, width, height), width, height);
+            SeamIndex index = SeamIndex.build(picture, minWidth);
+            SeamCarver exact = new SeamCarver(picture);
+            for (int target = width; target >= minWidth; target--) {
+                if (target < width)
+                    exact.removeVerticalSeam(exact.findVerticalSeam());
+                assertArrayEquals("case " + n + " width " + target, exact.argb(), argb(index.retarget(picture, target)));
+            }
+        }
+    }
+
+    @Test
+    public void savedIndexLoadsBack() {
+        Random random = new Random(17);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 30, 20), 30, 20);
+        SeamIndex index = SeamIndex.build(picture, 10);
+        File file = SeamIndex.indexFile(new File(scratch.getRoot(), "picture.png"));
+        index.save(file);
+        SeamIndex loaded = SeamIndex.load(file);
+        assertEquals(30, loaded.width());
+        assertEquals(20, loaded.height());
+        assertEquals(10, loaded.minWidth());
+        for (int target = 10; target <= 30; target += 5)
+            assertArrayEquals("width " + target, argb(index.retarget(picture, target)), argb(loaded.retarget(picture, target)));
+    }
+
+    @Test
+    public void badMagicIsRejected() throws Exception {
+        assertRejected(0, "is not a seam index");
+    }
+
+    @Test
+    public void badVersionIsRejected() throws Exception {
+        assertRejected(4, "unsupported version");
+    }
+
+    // an index whose int at the given offset is overwritten fails to load with the given message
+    private void assertRejected(long offset, String message) throws Exception {
+        Random random = new Random(18);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 12, 8), 12, 8);
+        File file = new File(scratch.getRoot(), "corrupt.seams");
+        SeamIndex.build(picture, 6).save(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.writeInt(0x7F7F7F7F);
+        }
+        try {
+            SeamIndex.load(file);
+            fail("a corrupt index was loaded");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static int[] argb(Picture picture) {
+        int[] argb = new int[picture.width() * picture.height()];
+        for (int row = 0; row < picture.height(); row++) {
+            for (int col = 0; col < picture.width(); col++)
+                argb[row * picture.width() + col] = picture.getRGB(col, row);
+        }
+        return argb;
+    }
+
+}
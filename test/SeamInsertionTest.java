@@ -0,0 +1,125 @@
+/******************************************************************************
+ *  Compilation:  javac SeamInsertionTest.java
+ *  Execution:    mvn test -Dtest=SeamInsertionTest
+ *  Dependencies: SeamCarver.java TestPictures.java
+ *
+ *  Inserting k seams grows the picture by k, keeps every original pixel in
+ *  order and puts after each picked pixel the average of it and its right
+ *  (lower) neighbor; counts outside [0, size) are rejected.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SeamInsertionTest {
+
+    @Test
+    public void verticalSeamsAverageTheirRightNeighbor() {
+        Random random = new Random(13);
+        for (int n = 0; n < 6; n++) {
+            int width = 10 + random.nextInt(30);
+            int height = 10 + random.nextInt(30);
+            int k = 1 + random.nextInt(width - 1);
+            int[] argb = TestPictures.argb(random, width, height);
+            SeamCarver carver = new SeamCarver(argb, width, height);
+            carver.insertVerticalSeams(k);
+            assertEquals("case " + n + ": width", width + k, carver.width());
+            assertEquals("case " + n + ": height", height, carver.height());
+            int[] enlarged = carver.argb();
+            for (int row = 0; row < height; row++) {
+                int[] before = new int[width];
+                int[] after = new int[width + k];
+                System.arraycopy(argb, row * width, before, 0, width);
+                System.arraycopy(enlarged, row * (width + k), after, 0, width + k);
+                assertInserted("case " + n + " row " + row, before, after, k);
+            }
+        }
+    }
+
+    @Test
+    public void horizontalSeamsAverageTheirLowerNeighbor() {
+        Random random = new Random(14);
+        for (int n = 0; n < 6; n++) {
+            int width = 10 + random.nextInt(30);
+            int height = 10 + random.nextInt(30);
+            int k = 1 + random.nextInt(height - 1);
+            int[] argb = TestPictures.argb(random, width, height);
+            SeamCarver carver = new SeamCarver(argb, width, height);
+            carver.insertHorizontalSeams(k);
+            assertEquals("case " + n + ": width", width, carver.width());
+            assertEquals("case " + n + ": height", height + k, carver.height());
+            int[] enlarged = carver.argb();
+            for (int col = 0; col < width; col++) {
+                int[] before = new int[height];
+                int[] after = new int[height + k];
+                for (int row = 0; row < height; row++)
+                    before[row] = argb[row * width + col];
+                for (int row = 0; row < height + k; row++)
+                    after[row] = enlarged[row * width + col];
+                assertInserted("case " + n + " column " + col, before, after, k);
+            }
+        }
+    }
+
+    @Test
+    public void noSeamsLeavesThePicture() {
+        int[] argb = TestPictures.argb(new Random(15), 12, 9);
+        SeamCarver carver = new SeamCarver(argb, 12, 9);
+        carver.insertVerticalSeams(0);
+        carver.insertHorizontalSeams(0);
+        assertArrayEquals(argb, carver.argb());
+    }
+
+    @Test
+    public void countsOutsideThePictureAreRejected() {
+        SeamCarver carver = new SeamCarver(TestPictures.argb(new Random(16), 12, 9), 12, 9);
+        int[][] counts = { { 12, 0 }, { -1, 0 }, { 0, 9 }, { 0, -1 } };
+        for (int[] count : counts) {
+            try {
+                if (count[0] != 0)
+                    carver.insertVerticalSeams(count[0]);
+                else
+                    carver.insertHorizontalSeams(count[1]);
+                fail("inserted " + count[0] + " columns and " + count[1] + " rows");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(12, carver.width());
+        assertEquals(9, carver.height());
+    }
+
+    // after is before with k pixels inserted, each right after a pixel of before and the
+    // channel-wise average of that pixel and the next one (itself at the end)
+    private static void assertInserted(String message, int[] before, int[] after, int k) {
+        int read = 0;
+        int inserted = 0;
+        for (int j = 0; j < after.length; j++) {
+            if (read < before.length && after[j] == before[read]) {
+                read++;
+                continue;
+            }
+            assertTrue(message + ": pixel " + j + " inserted before any original", read > 0);
+            int next = before[Math.min(read, before.length - 1)];
+            assertEquals(message + ": pixel " + j, average(before[read - 1], next), after[j]);
+            inserted++;
+        }
+        assertEquals(message + ": originals kept", before.length, read);
+        assertEquals(message + ": inserted", k, inserted);
+    }
+
+    private static int average(int rgb1, int rgb2) {
+        int r = (((rgb1 >> 16) & 0xFF) + ((rgb2 >> 16) & 0xFF)) / 2;
+        int g = (((rgb1 >> 8) & 0xFF) + ((rgb2 >> 8) & 0xFF)) / 2;
+        int b = ((rgb1 & 0xFF) + (rgb2 & 0xFF)) / 2;
+        return (rgb1 & 0xFF000000) | r << 16 | g << 8 | b;
+    }
+
+}
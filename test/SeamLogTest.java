@@ -0,0 +1,117 @@
+/******************************************************************************
+ *  Compilation:  javac SeamLogTest.java
+ *  Execution:    mvn test -Dtest=SeamLogTest
+ *  Dependencies: SeamLog.java SeamCarver.java TestPictures.java
+ *
+ *  Replaying a seam log, with the counting path for short runs and the
+ *  Fenwick select for long ones, leaves the picture the carver left that
+ *  recorded it; saved logs load back, and broken ones are rejected.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class SeamLogTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test
+    public void replayMatchesTheRecordingCarver() {
+        Random random = new Random(24);
+        for (int n = 0; n < 6; n++) {
+            int width = 20 + random.nextInt(30);
+            int height = 20 + random.nextInt(30);
+            int[] argb = TestPictures.argb(random, width, height);
+            Picture picture = TestPictures.picture(argb, width, height);
+            SeamCarver carver = record(picture, random);
+
+            SeamCarver replayed = carver.history().replay(picture);
+            TestPictures.assertSameCarver("case " + n, carver, replayed);
+            // the replayed carver undoes back to the picture it started from
+            while (replayed.undo())
+                ;
+            assertArrayEquals("case " + n + ": undone", argb, replayed.argb());
+        }
+    }
+
+    @Test
+    public void savedLogLoadsBack() {
+        Random random = new Random(25);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 30, 25), 30, 25);
+        SeamLog log = record(picture, random).history();
+        File file = new File(scratch.getRoot(), "carve.slog");
+        log.save(file);
+        SeamLog loaded = SeamLog.load(file);
+        assertEquals(log.size(), loaded.size());
+        for (int i = 0; i < log.size(); i++) {
+            assertEquals("seam " + i, log.isVertical(i), loaded.isVertical(i));
+            assertArrayEquals("seam " + i, log.seam(i), loaded.seam(i));
+        }
+        TestPictures.assertSameCarver("loaded", log.replay(picture), loaded.replay(picture));
+    }
+
+    @Test
+    public void invalidStepIsRejected() throws Exception {
+        Random random = new Random(26);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 30, 25), 30, 25);
+        SeamLog log = record(picture, random).history();
+        File file = new File(scratch.getRoot(), "corrupt.slog");
+        log.save(file);
+        // the last byte of the first word of steps holds the lowest four steps
+        long first = 5 * 4 + 9L * log.size() + 8;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(first + 7);
+            int steps = raf.read();
+            raf.seek(first + 7);
+            raf.write(steps | 3);
+        }
+        try {
+            SeamLog.load(file);
+            fail("a step of +2 was loaded");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("invalid step 0"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void disconnectedSeamIsRejected() {
+        Random random = new Random(27);
+        Picture picture = TestPictures.picture(TestPictures.argb(random, 10, 4), 10, 4);
+        SeamLog log = new SeamLog(10, 4);
+        log.add(new int[] { 1, 2, 4, 4 }, true);
+        log.replay(picture);
+    }
+
+    // a carver that removed runs of seams in both directions, long enough runs among them for
+    // the Fenwick select of the replay
+    private static SeamCarver record(Picture picture, Random random) {
+        SeamCarver carver = new SeamCarver(picture);
+        carver.setHistory(true);
+        int[] runs = { 2, 1 + random.nextInt(3), 12, 10, 1 };
+        for (int r = 0; r < runs.length; r++) {
+            boolean vertical = r % 2 == 0;
+            for (int i = 0; i < runs[r]; i++) {
+                if (vertical)
+                    carver.removeVerticalSeam(carver.findVerticalSeam());
+                else
+                    carver.removeHorizontalSeam(carver.findHorizontalSeam());
+            }
+        }
+        return carver;
+    }
+
+}
@@ -0,0 +1,102 @@
+/******************************************************************************
+ *  Compilation:  javac SequenceCarverTest.java
+ *  Execution:    mvn test -Dtest=SequenceCarverTest
+ *  Dependencies: SequenceCarver.java SeamCarver.java TestPictures.java
+ *
+ *  A failure in any stage of the decode, carve and encode pipeline reaches
+ *  the caller instead of leaving the other stages blocked, and a sequence
+ *  that does not fail carves every frame.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.princeton.cs.algs4.Picture;
+
+public class SequenceCarverTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void everyFrameIsCarved() throws Exception {
+        List<File> frames = frames(5, 30, 20);
+        File output = scratch.newFolder("out");
+        SequenceCarver carver = new SequenceCarver(4, 3, 4, 0.1);
+        carver.carve(frames, output);
+        for (File frame : frames) {
+            Picture carved = new Picture(new File(output, frame.getName()));
+            assertEquals(frame.getName(), 26, carved.width());
+            assertEquals(frame.getName(), 17, carved.height());
+        }
+        assertEquals(5 * 7, carver.warmSeams() + carver.fullSeams());
+    }
+
+    @Test(timeout = 30000)
+    public void decodeFailureReachesTheCaller() throws Exception {
+        List<File> frames = frames(4, 30, 20);
+        File broken = scratch.newFile("broken.png");
+        try (FileOutputStream out = new FileOutputStream(broken)) {
+            out.write("not a png".getBytes("US-ASCII"));
+        }
+        frames.add(2, broken);
+        try {
+            new SequenceCarver(2, 2, 4, 0.1).carve(frames, scratch.newFolder("out"));
+            fail("a broken frame was carved");
+        } catch (IllegalStateException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void encodeFailureReachesTheCaller() throws Exception {
+        List<File> frames = frames(6, 30, 20);
+        // a file where the output directory should be
+        File output = scratch.newFile("out");
+        try {
+            new SequenceCarver(2, 2, 4, 0.1).carve(frames, output);
+            fail("frames were written into a file");
+        } catch (IllegalStateException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void carveFailureReachesTheCaller() throws Exception {
+        List<File> frames = frames(6, 30, 20);
+        try {
+            // more columns than the frames have
+            new SequenceCarver(30, 0, 4, 0.1).carve(frames, scratch.newFolder("out"));
+            fail("a frame lost all its columns");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // count random frames of the same size as png files
+    private List<File> frames(int count, int width, int height) throws IOException {
+        Random random = new Random(14);
+        File directory = scratch.newFolder();
+        List<File> frames = new ArrayList<File>();
+        for (int n = 0; n < count; n++) {
+            File file = new File(directory, "frame" + n + ".png");
+            TestPictures.picture(TestPictures.argb(random, width, height), width, height).save(file);
+            frames.add(file);
+        }
+        return frames;
+    }
+
+}
@@ -0,0 +1,83 @@
+/******************************************************************************
+ *  Compilation:  javac StreamingCarverTest.java
+ *  Execution:    mvn test -Dtest=StreamingCarverTest
+ *  Dependencies: StreamingCarver.java SeamCarver.java TestPictures.java
+ *
+ *  The streaming carver, reading pngs with its own strip reader and other
+ *  formats through ImageIO, removes the same seams as the exact carver.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StreamingCarverTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    @Test
+    public void rgbPngMatchesTheExactCarver() throws Exception {
+        check(BufferedImage.TYPE_INT_RGB, "png", 11);
+    }
+
+    @Test
+    public void argbPngMatchesTheExactCarver() throws Exception {
+        check(BufferedImage.TYPE_INT_ARGB, "png", 12);
+    }
+
+    @Test
+    public void palettePngMatchesTheExactCarver() throws Exception {
+        check(BufferedImage.TYPE_BYTE_INDEXED, "png", 13);
+    }
+
+    @Test
+    public void otherFormatsMatchTheExactCarver() throws Exception {
+        check(BufferedImage.TYPE_INT_RGB, "bmp", 14);
+    }
+
+    // random pictures of the given type in the given format, carved with strips of 1 to 7 rows
+    private void check(int type, String format, long seed) throws Exception {
+        Random random = new Random(seed);
+        for (int n = 0; n < 4; n++) {
+            int width = 10 + random.nextInt(30);
+            int height = 10 + random.nextInt(30);
+            int columns = random.nextInt(width / 2);
+            int stripHeight = 1 + random.nextInt(7);
+            BufferedImage image = new BufferedImage(width, height, type);
+            image.setRGB(0, 0, width, height, TestPictures.argb(random, width, height), 0, width);
+            File input = scratch.newFile("input" + n + "." + format);
+            File output = scratch.newFile("output" + n + ".png");
+            ImageIO.write(image, format, input);
+
+            // the exact carver gets what the file decodes to, palette colors included
+            SeamCarver exact = new SeamCarver(ImageIO.read(input));
+            for (int s = 0; s < columns; s++)
+                exact.removeVerticalSeam(exact.findVerticalSeam());
+            new StreamingCarver(scratch.newFolder(), stripHeight).carve(input, output, columns);
+
+            BufferedImage carved = ImageIO.read(output);
+            String message = format + " type " + type + " case " + n;
+            assertEquals(message + ": width", exact.width(), carved.getWidth());
+            assertEquals(message + ": height", exact.height(), carved.getHeight());
+            int[] expected = exact.argb();
+            int[] actual = carved.getRGB(0, 0, carved.getWidth(), carved.getHeight(), null, 0, carved.getWidth());
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] &= 0xFFFFFF;
+                actual[i] &= 0xFFFFFF;
+            }
+            assertArrayEquals(message, expected, actual);
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/******************************************************************************
+ *  Compilation:  javac TestPictures.java
+ *  Execution:    none
+ *  Dependencies: SeamCarver.java
+ *
+ *  Random pictures and carvers built from them for the tests, plus the
+ *  comparison of two carvers pixel by pixel and energy by energy.
+ *
+ ******************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import edu.princeton.cs.algs4.Picture;
+
+final class TestPictures {
+
+    private TestPictures() {
+    }
+
+    // opaque pixels of random colors, row-major
+    static int[] argb(Random random, int width, int height) {
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++)
+            argb[i] = 0xFF000000 | random.nextInt(1 << 24);
+        return argb;
+    }
+
+    static Picture picture(int[] argb, int width, int height) {
+        Picture picture = new Picture(width, height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++)
+                picture.setRGB(col, row, argb[row * width + col]);
+        }
+        return picture;
+    }
+
+    static BufferedImage image(int[] argb, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    // same size, pixels and energies
+    static void assertSameCarver(String message, SeamCarver expected, SeamCarver actual) {
+        assertEquals(message + ": width", expected.width(), actual.width());
+        assertEquals(message + ": height", expected.height(), actual.height());
+        assertArrayEquals(message + ": pixels", expected.argb(), actual.argb());
+        for (int x = 0; x < expected.width(); x++) {
+            for (int y = 0; y < expected.height(); y++)
+                assertEquals(message + ": energy at " + x + "," + y, expected.energy(x, y), actual.energy(x, y), 1e-9);
+        }
+    }
+
+}